@@ -0,0 +1,63 @@
+package moodleHelp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * copySpecial, when many files of a student end up with the same target name
+ * (noDir layout: maier.java, maier1.java, maier2.java, ...). Every invocation
+ * starts with an empty task directory.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CopySpecialBenchmark {
+
+	@Param({"10", "100"})
+	int collisions;
+
+	private Path base;
+	private String source;
+	private String target;
+	private Unzipper unzipper;
+
+	@Setup(Level.Trial)
+	public void setupTrial() throws IOException {
+		Fixtures.quiet();
+		base = Fixtures.tempDir("copySpecial");
+		Path s = base.resolve("Main.java");
+		Files.write(s, Fixtures.javaSource("Main", 40).getBytes(StandardCharsets.UTF_8));
+		source = s.toString();
+	}
+
+	@Setup(Level.Invocation)
+	public void setupInvocation() {
+		// init deletes and creates the task directory and starts a new name registry
+		unzipper = Fixtures.unzipper(base, "B", Unzipper.FileStructureType.noDir);
+		target = unzipper.cd.unzipDir + File.separator + "maier.java";
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		Fixtures.delete(base);
+		Fixtures.loud();
+	}
+
+	/**
+	 * One operation copies the file collisions times to the same target name.
+	 */
+	@Benchmark
+	public void copySpecial() {
+		for (int i = 0; i < collisions; i++) {
+			unzipper.copySpecial(source, target);
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package moodleHelp;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * MyFilenameFilter.accept for the file names of typical deliveries (Eclipse and
+ * BlueJ projects, documents, archives), with the default exclusions only and
+ * with an include list and exclusion patterns.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FileFilterBenchmark {
+	private static final String[] NAMES = {"Main.java", "Main.class", "package.bluej", "Main.ctxt",
+		".project", ".classpath", "README.TXT", "Protokoll.docx", "Projekt.zip", "backup.tar.gz",
+		"App.jar", "Thumbs.db", "~$Protokoll.docx", "notes.tmp", "Bild.PNG", "build.xml"};
+
+	@Param({"default", "rules"})
+	String filter;
+
+	private Unzipper.MyFilenameFilter matcher;
+
+	@Setup
+	public void setup() {
+		Unzipper u = new Unzipper();
+		if (filter.equals("rules")) {
+			u.cd.suffixList = new String[] {"java", "txt", "docx"};
+			u.cd.excludeGlobs = new String[] {"~$*", "*.tmp", "Thumbs.db"};
+		}
+		matcher = new Unzipper.MyFilenameFilter(u.cd);
+	}
+
+	/**
+	 * One operation filters all names.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(16)
+	public void accept(Blackhole bh) {
+		for (String name: NAMES) {
+			bh.consume(matcher.accept(name));
+		}
+	}
+}
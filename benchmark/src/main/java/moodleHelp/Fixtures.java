@@ -0,0 +1,149 @@
+package moodleHelp;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generated test data for the benchmarks: rosters, Moodle help directories
+ * (one intermediate directory per student, as unzipped from a Moodle download)
+ * and Java sources. All data is derived from a fixed seed, so every run of a
+ * benchmark sees the same files.
+ */
+final class Fixtures {
+	private static final String[] SYLLABLES = {"ma", "ier", "hu", "ber", "gru", "ber", "wa", "gner",
+		"stein", "er", "mo", "ser", "lech", "ner", "bau", "er", "hof", "mann", "pich", "ler"};
+	private static final String[] FIRST_NAMES = {"Anna", "Max", "Karl", "Lena", "Paul", "Sophie", "Lukas",
+		"Julia", "David", "Laura"};
+
+	private static PrintStream out;
+
+	private Fixtures() {
+	}
+
+	static Path tempDir(String prefix) throws IOException {
+		return Files.createTempDirectory("moodleBench-" + prefix);
+	}
+
+	static void delete(Path dir) {
+		TreeDeleter.deleteTree(dir);
+	}
+
+	/**
+	 * The unzipper reports every file on System.out, which would dominate the measurements.
+	 */
+	static synchronized void quiet() {
+		if (out == null) {
+			out = System.out;
+			System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		}
+	}
+
+	static synchronized void loud() {
+		if (out != null) {
+			System.setOut(out);
+			out = null;
+		}
+	}
+
+	/**
+	 * Surnames like "Maierhofer", unique, but many of them share prefixes (Maier, Maierhofer, ...),
+	 * which is the hard case for findStudent.
+	 */
+	static String[] surnames(int n) {
+		Random r = new Random(42);
+		Set<String> names = new LinkedHashSet<String>();
+		while (names.size() < n) {
+			StringBuilder sb = new StringBuilder();
+			int syllables = 2 + r.nextInt(3);
+			for (int i = 0; i < syllables; i++) {
+				sb.append(SYLLABLES[r.nextInt(SYLLABLES.length)]);
+			}
+			sb.setCharAt(0, Character.toUpperCase(sb.charAt(0)));
+			names.add(sb.toString());
+		}
+		return names.toArray(new String[n]);
+	}
+
+	static String firstName(int i) {
+		return FIRST_NAMES[i % FIRST_NAMES.length];
+	}
+
+	/**
+	 * The name of the intermediate directory Moodle creates for a delivery.
+	 */
+	static String moodleDir(String surname, int i) {
+		return surname + " " + firstName(i) + "_" + (10000 + i) + "_assignsubmission_file_";
+	}
+
+	/**
+	 * Writes the roster Klasse-&lt;klasse&gt;.txt (see Unzipper.readNameFile).
+	 */
+	static void writeRoster(Path nameDir, String klasse, String[] surnames) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		lines.add("* generated roster");
+		for (int i = 0; i < surnames.length; i++) {
+			lines.add(surnames[i] + ";" + firstName(i));
+		}
+		Files.write(nameDir.resolve("Klasse-" + klasse + ".txt"), lines, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Creates a help directory as after unzipping a Moodle download: per student a Java file,
+	 * a text file and an Eclipse project as zip file.
+	 */
+	static void writeSubmissions(Path helpDir, String[] surnames) throws IOException {
+		for (int i = 0; i < surnames.length; i++) {
+			Path d = Files.createDirectories(helpDir.resolve(moodleDir(surnames[i], i)));
+			Files.write(d.resolve("Main.java"), javaSource("Main", 40).getBytes(StandardCharsets.UTF_8));
+			Files.write(d.resolve("notes.txt"), ("notes of " + surnames[i]).getBytes(StandardCharsets.UTF_8));
+			try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(d.resolve("project.zip")))) {
+				put(zip, "project/.project", "<projectDescription/>");
+				put(zip, "project/bin/app/App.class", "compiled");
+				for (int c = 0; c < 5; c++) {
+					put(zip, "project/src/app/Class" + c + ".java", javaSource("Class" + c, 100));
+				}
+			}
+		}
+	}
+
+	private static void put(ZipOutputStream zip, String name, String content) throws IOException {
+		zip.putNextEntry(new ZipEntry(name));
+		zip.write(content.getBytes(StandardCharsets.UTF_8));
+		zip.closeEntry();
+	}
+
+	/**
+	 * A Java source with a header comment, a package declaration and about the given number of lines.
+	 */
+	static String javaSource(String className, int lines) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("/*\n * generated\n */\npackage old.pkg;\n\nimport java.util.List;\n\n");
+		sb.append("public class ").append(className).append(" {\n");
+		for (int i = 8; i < lines - 1; i++) {
+			sb.append("\tint field").append(i).append(" = ").append(i).append("; // Zeile ").append(i).append('\n');
+		}
+		sb.append("}\n");
+		return sb.toString();
+	}
+
+	/**
+	 * A configured unzipper for the given directories, init has already been called.
+	 */
+	static Unzipper unzipper(Path base, String klasse, Unzipper.FileStructureType fst) {
+		Unzipper u = new Unzipper();
+		u.cd.nameDir = base.resolve("names").toString();
+		u.cd.nameFile = "Klasse-" + klasse + ".txt";
+		u.cd.unzipDirBase = base.toString();
+		u.cd.unzipSubdir = "task";
+		u.cd.helpDir = base.resolve("help").toString();
+		u.cd.deleteHelp = false;
+		u.cd.fst = fst;
+		u.cd.update();
+		u.init(u.cd);
+		return u;
+	}
+}
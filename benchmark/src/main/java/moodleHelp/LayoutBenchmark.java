@@ -0,0 +1,58 @@
+package moodleHelp;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * planLayout and executePlan end to end for every FileStructureType: from an
+ * unzipped Moodle download in the help directory to the task directory. Every
+ * delivery consists of a Java file, a text file and a zipped Eclipse project.
+ * The help directory is generated once, every invocation starts with an empty
+ * task directory.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class LayoutBenchmark {
+
+	@Param({"noDir", "singleDir", "dirTree", "dirTreePrefix"})
+	String fst;
+
+	@Param({"30"})
+	int students;
+
+	private Path base;
+	private Unzipper unzipper;
+
+	@Setup(Level.Trial)
+	public void setupTrial() throws IOException {
+		Fixtures.quiet();
+		base = Fixtures.tempDir("layout");
+		String[] surnames = Fixtures.surnames(students);
+		Fixtures.writeRoster(Files.createDirectories(base.resolve("names")), "B", surnames);
+		Fixtures.writeSubmissions(base.resolve("help"), surnames);
+	}
+
+	@Setup(Level.Invocation)
+	public void setupInvocation() {
+		unzipper = Fixtures.unzipper(base, "B", Unzipper.FileStructureType.valueOf(fst));
+		unzipper.readNameFile(unzipper.cd);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		Fixtures.delete(base);
+		Fixtures.loud();
+	}
+
+	@Benchmark
+	public void planAndExecute() {
+		unzipper.executePlan(unzipper.cd, unzipper.planLayout(unzipper.cd));
+	}
+}
@@ -0,0 +1,48 @@
+package moodleHelp;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * findStudent for the intermediate directory names of a Moodle download, with
+ * roster sizes from a single class up to a whole school year.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StudentLookupBenchmark {
+
+	@Param({"30", "300", "3000"})
+	int rosterSize;
+
+	private Unzipper unzipper;
+	private String[] moodleDirs;
+	private int next;
+
+	@Setup
+	public void setup() {
+		unzipper = new Unzipper();
+		unzipper.cd.update();
+		String[] surnames = Fixtures.surnames(rosterSize);
+		moodleDirs = new String[surnames.length];
+		for (int i = 0; i < surnames.length; i++) {
+			Unzipper.StudentName t = new Unzipper.StudentName(surnames[i]);
+			t.vorName = Fixtures.firstName(i);
+			unzipper.cd.studentList.add(t);
+			moodleDirs[i] = Fixtures.moodleDir(surnames[i], i);
+		}
+		unzipper.cd.studentIndex = new Unzipper.StudentIndex(unzipper.cd.studentList);
+	}
+
+	@Benchmark
+	public Unzipper.StudentName findStudent() {
+		if (next == moodleDirs.length) {
+			next = 0;
+		}
+		return unzipper.findStudent(moodleDirs[next++], unzipper.cd);
+	}
+}
@@ -0,0 +1,59 @@
+package moodleHelp;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * updatePackageSingle (singleDir layout) on a small and a large Java file, once
+ * with a package that has to be changed and once with the package the file
+ * already has.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UpdatePackageBenchmark {
+
+	@Param({"50", "5000"})
+	int lines;
+
+	@Param({"new.pkg", "old.pkg"})
+	String packageName;
+
+	private Path base;
+	private Path file;
+	private byte[] content;
+	private Unzipper unzipper;
+
+	@Setup(Level.Trial)
+	public void setupTrial() throws IOException {
+		Fixtures.quiet();
+		base = Fixtures.tempDir("updatePackage");
+		unzipper = Fixtures.unzipper(base, "B", Unzipper.FileStructureType.singleDir);
+		// named like its class, so updatePackageSingle does not rename it
+		file = Paths.get(unzipper.cd.unzipDir, "Source.java");
+		content = Fixtures.javaSource("Source", lines).getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Setup(Level.Invocation)
+	public void setupInvocation() throws IOException {
+		Files.write(file, content);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		Fixtures.delete(base);
+		Fixtures.loud();
+	}
+
+	@Benchmark
+	public void updatePackageSingle() {
+		unzipper.updatePackageSingle(file.toString(), packageName);
+	}
+}
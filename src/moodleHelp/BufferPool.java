@@ -0,0 +1,58 @@
+package moodleHelp;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A simple pool of copy buffers, so that unzipping and copying do not allocate
+ * a new buffer for every single file. The pool is thread safe.
+ */
+class BufferPool {
+	static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+	static final int DEFAULT_MAX_POOLED = 32;
+
+	private static final BufferPool SHARED = new BufferPool(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED);
+
+	private final int bufferSize;
+	private final int maxPooled;
+	private final ConcurrentLinkedQueue<byte[]> buffers = new ConcurrentLinkedQueue<byte[]>();
+	private final AtomicInteger pooled = new AtomicInteger();
+
+	BufferPool(int bufferSize, int maxPooled) {
+		this.bufferSize = bufferSize;
+		this.maxPooled = maxPooled;
+	}
+
+	/**
+	 * The pool shared by all copy and unzip operations.
+	 */
+	static BufferPool shared() {
+		return SHARED;
+	}
+
+	/**
+	 * Returns a pooled buffer, or a new one if the pool is empty.
+	 */
+	byte[] acquire() {
+		byte[] b = buffers.poll();
+		if (b == null) {
+			return new byte[bufferSize];
+		}
+		pooled.decrementAndGet();
+		return b;
+	}
+
+	/**
+	 * Returns a buffer to the pool. If the pool is full the buffer is dropped.
+	 */
+	void release(byte[] b) {
+		if (b == null || b.length != bufferSize) {
+			return;
+		}
+		if (pooled.incrementAndGet() > maxPooled) {
+			pooled.decrementAndGet();
+			return;
+		}
+		buffers.offer(b);
+	}
+}
@@ -0,0 +1,157 @@
+package moodleHelp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A content hash index for one run (option -dedup). Every file written to the
+ * task directory is hashed (SHA-256) while it is copied or unzipped. If a file
+ * with the same content has already been written, the new file becomes a hard
+ * link to it. If a hard link is not possible (other volume, file system without
+ * hard links), the copy is kept. Note that linked files share their content:
+ * editing one of them changes all of them. The index is thread safe.
+ */
+class DedupIndex {
+	private static final String ALGORITHM = "SHA-256";
+
+	// size and hash -> first file with this content
+	private final ConcurrentHashMap<String, Path> index = new ConcurrentHashMap<String, Path>();
+	private final BufferPool pool;
+	private final AtomicInteger files = new AtomicInteger();
+	private final AtomicInteger linked = new AtomicInteger();
+	private final AtomicLong bytesSaved = new AtomicLong();
+
+	DedupIndex(BufferPool pool) {
+		this.pool = pool;
+	}
+
+	DedupIndex() {
+		this(BufferPool.shared());
+	}
+
+	static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// every Java runtime has to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * The key of a content: its size and hash.
+	 */
+	static String key(long size, MessageDigest digest) {
+		StringBuilder sb = new StringBuilder().append(size).append('-');
+		for (byte b: digest.digest()) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Hashes a file, which is about to be copied.
+	 */
+	String hash(Path file) throws IOException {
+		MessageDigest digest = newDigest();
+		byte[] buffer = pool.acquire();
+		long size = 0;
+		try (InputStream in = Files.newInputStream(file)) {
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				digest.update(buffer, 0, n);
+				size += n;
+			}
+		} finally {
+			pool.release(buffer);
+		}
+		return key(size, digest);
+	}
+
+	/**
+	 * Creates target as a hard link to a known file with the same content, before
+	 * anything is written. An existing target is replaced.
+	 * @return false, if the content is new or no hard link is possible, the file must be copied
+	 */
+	boolean linkExisting(String key, Path target) {
+		files.incrementAndGet();
+		Path existing = index.get(key);
+		if (existing == null) {
+			return false;
+		}
+		try {
+			Files.deleteIfExists(target);
+			Files.createLink(target, existing);
+		} catch (IOException | UnsupportedOperationException e) {
+			forgetIfMissing(key, existing);
+			return false;
+		}
+		count(key);
+		return true;
+	}
+
+	/**
+	 * Registers a file, which has just been written. If a file with the same content
+	 * is already known, the new file is replaced by a hard link to it.
+	 */
+	void linkOrRegister(String key, Path file) {
+		Path existing = index.putIfAbsent(key, file);
+		if (existing == null || existing.equals(file)) {
+			return;
+		}
+		Path tmp = file.resolveSibling(file.getFileName() + ".dedup");
+		try {
+			Files.createLink(tmp, existing);
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+			count(key);
+		} catch (IOException | UnsupportedOperationException e) {
+			try {
+				Files.deleteIfExists(tmp);
+			} catch (IOException e1) {
+				// the copy is still okay
+			}
+			forgetIfMissing(key, existing);
+			index.putIfAbsent(key, file);
+		}
+	}
+
+	/**
+	 * Registers a file, which has been copied after linkExisting returned false.
+	 */
+	void register(String key, Path file) {
+		index.putIfAbsent(key, file);
+	}
+
+	/**
+	 * A file of the index may have been deleted or renamed meanwhile, then the next file
+	 * with this content takes its place.
+	 */
+	private void forgetIfMissing(String key, Path existing) {
+		if (!Files.exists(existing)) {
+			index.remove(key, existing);
+		}
+	}
+
+	private void count(String key) {
+		linked.incrementAndGet();
+		bytesSaved.addAndGet(Long.parseLong(key.substring(0, key.indexOf('-'))));
+	}
+
+	/**
+	 * Counts a file written from a stream, see linkOrRegister.
+	 */
+	void countFile() {
+		files.incrementAndGet();
+	}
+
+	@Override
+	public String toString() {
+		return files.get() + " files, " + linked.get() + " hard links, " + bytesSaved.get() + " bytes saved";
+	}
+}
@@ -0,0 +1,127 @@
+package moodleHelp;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.ZipFile;
+
+/**
+ * Watches directories for new or changed files (option -watch). A browser writes
+ * a download in several steps (often under a temporary name, which is renamed at
+ * the end), so a file is only handed on, when there has been no event for it for
+ * the quiet time and it can be opened as zip file, i.e. its central directory
+ * at the end of the file has been written. A file, whose size and modification
+ * time have not changed since it was handed on last, is not handed on again.
+ */
+class DownloadWatcher {
+	private final WatchService watchService;
+	private final long quietMillis;
+	private final Predicate<Path> accept;
+	// file -> time of the last event for it
+	private final Map<Path, Long> pending = new HashMap<Path, Long>();
+	// file -> size and modification time, when it was handed on
+	private final Map<Path, String> done = new HashMap<Path, String>();
+
+	/**
+	 * @param accept the files of the watched directories, which are of interest
+	 */
+	DownloadWatcher(long quietMillis, Predicate<Path> accept) throws IOException {
+		this.quietMillis = quietMillis;
+		this.accept = accept;
+		watchService = FileSystems.getDefault().newWatchService();
+	}
+
+	/**
+	 * Watches a directory (not its subdirectories).
+	 */
+	void register(Path dir) throws IOException {
+		dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+	}
+
+	/**
+	 * Hands on the completed files until the thread is interrupted. The action is
+	 * called on this thread, events arriving meanwhile are queued by the WatchService.
+	 */
+	void run(Consumer<Path> action) throws InterruptedException {
+		while (true) {
+			WatchKey key = pending.isEmpty() ? watchService.take() :
+				watchService.poll(Math.max(1, quietMillis / 4), TimeUnit.MILLISECONDS);
+			if (key != null) {
+				Path dir = (Path) key.watchable();
+				for (WatchEvent<?> event: key.pollEvents()) {
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+						rescan(dir);
+						continue;
+					}
+					Path file = dir.resolve((Path) event.context());
+					if (accept.test(file)) {
+						pending.put(file, System.currentTimeMillis());
+					}
+				}
+				key.reset();
+			}
+			long now = System.currentTimeMillis();
+			for (Iterator<Map.Entry<Path, Long>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+				Map.Entry<Path, Long> p = it.next();
+				if (now - p.getValue() < quietMillis) {
+					continue;
+				}
+				it.remove();
+				Path file = p.getKey();
+				String state = state(file);
+				if (state == null || state.equals(done.get(file))) {
+					continue;
+				}
+				if (!isComplete(file)) {
+					System.out.println("\"" + file + "\" is not a complete zip file, waiting for the next change.");
+					continue;
+				}
+				done.put(file, state);
+				action.accept(file);
+			}
+		}
+	}
+
+	/**
+	 * Events were lost, all files of the directory are checked again.
+	 */
+	private void rescan(Path dir) {
+		try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+			for (Path file: ds) {
+				if (accept.test(file)) {
+					pending.put(file, System.currentTimeMillis());
+				}
+			}
+		} catch (IOException e) {
+			System.out.println("Directory \"" + dir + "\" could not be listed: " + e);
+		}
+	}
+
+	/**
+	 * Size and modification time, null if the file does not exist (any more).
+	 */
+	private static String state(Path file) {
+		try {
+			BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+			return attrs.isRegularFile() ? attrs.size() + "|" + attrs.lastModifiedTime() : null;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * A zip file can only be opened, when the central directory has been written.
+	 */
+	static boolean isComplete(Path zip) {
+		try {
+			new ZipFile(zip.toFile()).close();
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package moodleHelp;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import moodleHelp.Unzipper.ConfigurationData;
+import moodleHelp.Unzipper.MyFilenameFilter;
+import moodleHelp.Unzipper.StudentName;
+
+/**
+ * Places the entries of a delivered archive in the unzip directory according to
+ * cd.fst. The path of an entry is its name in the delivered archive, nested archives
+ * are directories named like the archive without extension. The rules are shared by
+ * writing (Unzipper.ArchiveLayout), planning (Unzipper.ArchivePlanner) and listing
+ * (Inventory), the subclasses decide what a new file or directory means.
+ * @param <E> what is passed along with an entry, e.g. its content
+ */
+abstract class EntryRouter<E> {
+	final ConfigurationData cd;
+	final StudentName t;
+	final String destDir;
+	private final MyFilenameFilter treeFilter;
+	// dirTree: name on the top level -> name in destDir
+	final Map<String, String> topTargets = new HashMap<String, String>();
+	// dirTreePrefix: the directory for the whole archive
+	String prefixDir = null;
+
+	EntryRouter(ConfigurationData cd, StudentName t, MyFilenameFilter treeFilter) {
+		this.cd = cd;
+		this.t = t;
+		this.treeFilter = treeFilter;
+		destDir = cd.unzipDir + File.separator + t.subDir;
+	}
+
+	/**
+	 * A new file named toName, or with a counter if the name is taken.
+	 */
+	abstract void file(String toName, E entry);
+
+	/**
+	 * Like file for a new directory.
+	 * @return the name handed out, null: there is no directory
+	 */
+	abstract String directory(String toName);
+
+	/**
+	 * A file in a directory handed out by directory.
+	 * @param path the path with '/' within the directory
+	 */
+	abstract void fileIn(String dir, String path, E entry);
+
+	/**
+	 * Whether an entry is an archive, which is unpacked as well.
+	 * @param depth the nesting depth of the archive of the entry, a delivered archive has 1
+	 */
+	static boolean isNested(ConfigurationData cd, String name, int depth) {
+		return ZipExtractor.canExtract(name) && depth < cd.maxNestingDepth;
+	}
+
+	/**
+	 * The path of a nested archive, the prefix of its entries.
+	 */
+	static String nestedPrefix(String prefix, String name) {
+		return prefix + name.substring(0, name.lastIndexOf('.')).trim() + "/";
+	}
+
+	/**
+	 * Places an entry, which is not unpacked.
+	 * @param path the path of the entry in the delivered archive
+	 * @return false, if the filter does not take the entry
+	 */
+	boolean route(String path, E entry) {
+		String fn = path.substring(path.lastIndexOf('/') + 1);
+		switch (cd.fst) {
+		case noDir:
+			if (!treeFilter.accept(fn)) {
+				return false;
+			}
+			int li = fn.lastIndexOf('.');
+			file(cd.unzipDir + File.separator + t.subDir + (li >= 0 ? fn.substring(li) : ""), entry);
+			return true;
+		case singleDir:
+			if (!treeFilter.accept(fn)) {
+				return false;
+			}
+			file(destDir + File.separator + fn, entry);
+			return true;
+		case dirTree:
+			int i = path.indexOf('/');
+			if (i < 0) {
+				file(destDir + File.separator + path, entry);
+				return true;
+			}
+			String top = path.substring(0, i);
+			String topTarget = topTargets.get(top);
+			if (topTarget == null) {
+				topTarget = directory(destDir + File.separator + top);
+				topTargets.put(top, topTarget);
+			}
+			fileIn(topTarget, path.substring(i + 1), entry);
+			return true;
+		default:
+			if (prefixDir == null) {
+				prefixDir = directory(destDir + File.separator + t.subDir);
+			}
+			fileIn(prefixDir, path, entry);
+			return true;
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package moodleHelp;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Copies files and directory trees with NIO instead of spawning "copy" and
+ * "xcopy". Files are copied with FileChannel.transferTo, so the data does not
+ * pass through the Java heap. Works on every platform.
+ */
+class FileCopier {
+
+	/**
+	 * What a copy operation did. A directory copy continues after a failing
+	 * file, the failures are collected in errors.
+	 */
+	static class Result {
+		int files;
+		long bytes;
+		List<IOException> errors = new ArrayList<IOException>();
+
+		boolean isOkay() {
+			return errors.isEmpty();
+		}
+
+		@Override
+		public String toString() {
+			return files + " files, " + bytes + " bytes" + (isOkay() ? "" : ", " + errors.size() + " errors");
+		}
+	}
+
+	// true: last modified time and (on Windows) the DOS attributes are copied too, like copy/xcopy do
+	private final boolean preserveAttributes;
+	// null: no deduplication
+	private final DedupIndex dedup;
+
+	FileCopier(boolean preserveAttributes, DedupIndex dedup) {
+		this.preserveAttributes = preserveAttributes;
+		this.dedup = dedup;
+	}
+
+	FileCopier(boolean preserveAttributes) {
+		this(preserveAttributes, null);
+	}
+
+	/**
+	 * Copies a single file, an existing target file is overwritten (like "copy /Y").
+	 * With deduplication the source is hashed first, a known content is hard linked
+	 * instead of copied.
+	 * @return number of bytes copied
+	 */
+	long copyFile(Path from, Path to) throws IOException {
+		if (dedup == null) {
+			return copyContent(from, to);
+		}
+		String key = dedup.hash(from);
+		if (dedup.linkExisting(key, to)) {
+			return 0;
+		}
+		long bytes = copyContent(from, to);
+		dedup.register(key, to);
+		return bytes;
+	}
+
+	private long copyContent(Path from, Path to) throws IOException {
+		if (preserveAttributes) {
+			Files.copy(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+			return Files.size(to);
+		}
+		try (FileChannel in = FileChannel.open(from, StandardOpenOption.READ);
+			FileChannel out = FileChannel.open(to, StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			long size = in.size();
+			long position = 0;
+			while (position < size) {
+				position += in.transferTo(position, size - position, out);
+			}
+			return position;
+		}
+	}
+
+	/**
+	 * Copies a directory tree including hidden and empty directories (like "xcopy /E /I /H").
+	 * The target directory is created, existing files are overwritten.
+	 */
+	Result copyDir(Path from, Path to) {
+		final Result result = new Result();
+		final Path source = from.toAbsolutePath().normalize();
+		final Path target = to.toAbsolutePath().normalize();
+		try {
+			Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+					if (dir.equals(target)) {
+						// target within source, do not copy the copy again
+						return FileVisitResult.SKIP_SUBTREE;
+					}
+					Files.createDirectories(resolve(target, source.relativize(dir)));
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+					try {
+						result.bytes += copyFile(file, resolve(target, source.relativize(file)));
+						result.files++;
+					} catch (IOException e) {
+						result.errors.add(e);
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException e) {
+					result.errors.add(e);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			result.errors.add(e);
+		}
+		return result;
+	}
+
+	/**
+	 * Resolves relative name by name, the target may be in another file system
+	 * (e.g. a zip file, see OutputSink) with other separators.
+	 */
+	private static Path resolve(Path target, Path relative) {
+		Path p = target;
+		for (Path part: relative) {
+			p = p.resolve(part.toString());
+		}
+		return p;
+	}
+}
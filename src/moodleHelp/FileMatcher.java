@@ -0,0 +1,169 @@
+package moodleHelp;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * The compiled form of the file filter rules: excluded suffixes, excluded
+ * name patterns (globs), the positive suffix list (option -e) and a size limit.
+ * Suffixes are looked up in hash sets, all globs are combined into one regular
+ * expression. A matcher is immutable and can be shared between threads.
+ * It works on plain names, so it is used for directory listings as well as
+ * for the entries of archives.
+ */
+class FileMatcher {
+
+	/**
+	 * Excluded by default: compiled classes, binaries and BlueJ files.
+	 */
+	static final String[] STANDARD_EXCLUSIONS = {"class", "exe", "bin", "dll", "ctxt", "bluej"};
+
+	/**
+	 * Archive types, which are accepted regardless of the include list.
+	 */
+	static final String[] ARCHIVE_SUFFIXES = {"zip", "rar", "7z", "war", "ear", "jar"};
+
+	/**
+	 * A directory entry together with the attributes read while listing.
+	 */
+	static class Item {
+		final Path path;
+		final BasicFileAttributes attrs;
+
+		Item(Path path, BasicFileAttributes attrs) {
+			this.path = path;
+			this.attrs = attrs;
+		}
+
+		String name() {
+			return path.getFileName().toString();
+		}
+
+		boolean isDirectory() {
+			return attrs.isDirectory();
+		}
+	}
+
+	private final Set<String> excludeSuffixes;
+	private final Set<String> includeSuffixes;
+	private final Set<String> archiveSuffixes;
+	private final Pattern excludePattern;
+	private final long maxSize;
+
+	/**
+	 * @param withZipFiles archives are accepted, even if they are not in includeList
+	 * @param excludeList excluded suffixes without '.', null for none
+	 * @param excludeGlobs excluded file names, '*' and '?' are wildcards, null for none
+	 * @param includeList if not empty, only these suffixes are accepted
+	 * @param maxSize bigger files are not accepted, -1 for no limit
+	 */
+	FileMatcher(boolean withZipFiles, String[] excludeList, String[] excludeGlobs, String[] includeList,
+		long maxSize) {
+		excludeSuffixes = toSet(excludeList);
+		includeSuffixes = toSet(includeList);
+		archiveSuffixes = withZipFiles ? toSet(ARCHIVE_SUFFIXES) : Collections.<String>emptySet();
+		excludePattern = compileGlobs(excludeGlobs);
+		this.maxSize = maxSize;
+	}
+
+	private static Set<String> toSet(String[] suffixes) {
+		Set<String> set = new HashSet<String>();
+		if (suffixes != null) {
+			for (String s: suffixes) {
+				s = s.trim().toLowerCase();
+				if (s.startsWith(".")) {
+					s = s.substring(1);
+				}
+				if (s.length() > 0) {
+					set.add(s);
+				}
+			}
+		}
+		return set;
+	}
+
+	/**
+	 * Combines all globs into a single case insensitive pattern.
+	 */
+	private static Pattern compileGlobs(String[] globs) {
+		if (globs == null || globs.length == 0) {
+			return null;
+		}
+		StringBuilder sb = new StringBuilder();
+		for (String g: globs) {
+			if (g.trim().length() == 0) {
+				continue;
+			}
+			sb.append(sb.length() == 0 ? "" : "|").append("(?:");
+			for (char c: g.trim().toCharArray()) {
+				if (c == '*') {
+					sb.append(".*");
+				} else if (c == '?') {
+					sb.append('.');
+				} else {
+					sb.append(Pattern.quote(String.valueOf(c)));
+				}
+			}
+			sb.append(')');
+		}
+		return sb.length() == 0 ? null : Pattern.compile(sb.toString(),
+			Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE | Pattern.DOTALL);
+	}
+
+	/**
+	 * Filter for a file name without directory and unknown size, e.g. an entry of an archive.
+	 */
+	boolean accept(String name) {
+		return accept(name, false, -1);
+	}
+
+	/**
+	 * @param name file name without directory
+	 * @param isDirectory directories are always accepted
+	 * @param size -1 if unknown
+	 */
+	boolean accept(String name, boolean isDirectory, long size) {
+		if (isDirectory) {
+			return true;
+		}
+		if (maxSize >= 0 && size > maxSize) {
+			return false;
+		}
+		if (excludePattern != null && excludePattern.matcher(name).matches()) {
+			return false;
+		}
+		boolean included = includeSuffixes.isEmpty();
+		// all suffixes of the name, e.g. "gz" and "tar.gz" for "a.tar.gz"
+		for (int i = name.indexOf('.'); i >= 0; i = name.indexOf('.', i + 1)) {
+			String suffix = name.substring(i + 1).toLowerCase();
+			if (excludeSuffixes.contains(suffix)) {
+				return false;
+			}
+			if (archiveSuffixes.contains(suffix) || includeSuffixes.contains(suffix)) {
+				included = true;
+			}
+		}
+		return included;
+	}
+
+	/**
+	 * Lists the accepted entries of a directory. The attributes are read once per
+	 * entry while listing (on Windows they come directly from the listing).
+	 */
+	List<Item> list(Path dir) throws IOException {
+		List<Item> result = new ArrayList<Item>();
+		try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+			for (Path p: ds) {
+				BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+				if (accept(p.getFileName().toString(), attrs.isDirectory(), attrs.size())) {
+					result.add(new Item(p, attrs));
+				}
+			}
+		}
+		Collections.sort(result, (a, b) -> a.path.compareTo(b.path));
+		return result;
+	}
+}
@@ -0,0 +1,380 @@
+package moodleHelp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import moodleHelp.Unzipper.ConfigurationData;
+import moodleHelp.Unzipper.FileInfo;
+import moodleHelp.Unzipper.FileStructureType;
+import moodleHelp.Unzipper.MyFilenameFilter;
+import moodleHelp.Unzipper.StudentName;
+
+/**
+ * Who delivered what (option -inv), from the central directories only: per student
+ * the files with their sizes, whether the filters take them, the predicted FileInfo
+ * and the target names, which the rules of the streaming mode (Unzipper.moveEntries
+ * and ArchiveLayout) and copySpecial would hand out in an empty task directory.
+ * Nothing is unpacked and nothing is written.
+ * <p>
+ * Delivered archives are listed as well. An archive stored in the Moodle file is read
+ * by random access like the Moodle file itself, a compressed one has to be inflated
+ * as a stream, but its entries are skipped without being kept anywhere. Java files in
+ * singleDir are renamed after their class when they are written, which cannot be
+ * predicted without their content.
+ */
+class Inventory {
+
+	/**
+	 * A file of a delivery or an entry of a delivered archive.
+	 */
+	static class Item {
+		final String path;
+		final long size;
+		// absolute target name, null: not written
+		String target;
+		// why the item is not written, or that it is an archive
+		String note;
+		boolean archive;
+		final List<Item> entries = new ArrayList<Item>();
+
+		Item(String path, long size) {
+			this.path = path;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * The files of a student.
+	 */
+	static class Delivery {
+		final StudentName student;
+		final List<Item> items = new ArrayList<Item>();
+		// bytes, which would be written
+		long size = 0;
+		boolean found = false;
+		boolean tooBig = false;
+		String skipped = null;
+
+		Delivery(StudentName student) {
+			this.student = student;
+		}
+
+		FileInfo fileInfo() {
+			return tooBig ? FileInfo.tooBig : found ? FileInfo.fileOkay : FileInfo.fileNotFound;
+		}
+	}
+
+	private final ConfigurationData cd;
+	private final MyFilenameFilter copyFilter;
+	private final MyFilenameFilter treeFilter;
+	private final SizeGuard sizeGuard;
+	private final TargetNameRegistry targetNames;
+	private final List<Delivery> deliveries = new ArrayList<Delivery>();
+	// all items with a target, for the renames of the registry
+	private final List<Item> written = new ArrayList<Item>();
+	private long runSize = 0;
+
+	/**
+	 * @param copyFilter filter for the delivered files
+	 * @param treeFilter filter for the entries of delivered archives
+	 */
+	Inventory(ConfigurationData cd, MyFilenameFilter copyFilter, MyFilenameFilter treeFilter, SizeGuard sizeGuard) {
+		this.cd = cd;
+		this.copyFilter = copyFilter;
+		this.treeFilter = treeFilter;
+		this.sizeGuard = sizeGuard;
+		// the task directory is deleted before a run, unless it is kept
+		targetNames = new TargetNameRegistry(cd.deleteUnzipDir ? name -> false : name -> new File(name).exists());
+	}
+
+	/**
+	 * Adds the delivery of a student.
+	 * @param moodle the directory of the Moodle file
+	 * @param entries the entries of the student in the Moodle file
+	 */
+	void add(StudentName t, ZipDirectory moodle, List<ZipDirectory.Entry> entries) {
+		Delivery d = new Delivery(t);
+		deliveries.add(d);
+		long size = 0;
+		for (ZipDirectory.Entry e: entries) {
+			size += Math.max(e.size, 0);
+		}
+		// as Unzipper.skipTooBig
+		runSize += size;
+		if (sizeGuard.maxStudent >= 0 && size > sizeGuard.maxStudent) {
+			d.skipped = "delivery of " + size + " bytes exceeds the limit of " + sizeGuard.maxStudent + " bytes";
+		} else if (!sizeGuard.run.fits(runSize)) {
+			d.skipped = "the run limit is reached";
+			runSize -= size;
+		}
+		d.tooBig = d.skipped != null;
+		// Directories within the delivery: name in the Moodle file -> target
+		Map<String, String> dirTargets = new HashMap<String, String>();
+		for (ZipDirectory.Entry e: entries) {
+			if (e.isDirectory()) {
+				continue;
+			}
+			String entryName = e.name.replace('\\', '/');
+			int i = entryName.indexOf('/');
+			String name = i < 0 ? entryName : entryName.substring(i + 1);
+			Item item = new Item(name, e.size);
+			d.items.add(item);
+			if (d.skipped != null) {
+				continue;
+			}
+			int j = name.indexOf('/');
+			if (j >= 0) {
+				// as a whole, without filter
+				String dirKey = (i < 0 ? entryName : entryName.substring(0, i)) + "/" + name.substring(0, j);
+				String dirTarget = dirTargets.get(dirKey);
+				if (dirTarget == null) {
+					dirTarget = assign(Unzipper.submissionName(cd, t, name.substring(0, j)));
+					dirTargets.put(dirKey, dirTarget);
+				}
+				written(d, item, dirTarget + File.separator + name.substring(j + 1).replace('/', File.separatorChar));
+				continue;
+			}
+			if (!copyFilter.accept(name)) {
+				item.note = "excluded";
+				continue;
+			}
+			String tooBig = sizeGuard.check(e.size, e.compressedSize);
+			if (tooBig != null) {
+				item.note = "too big, " + tooBig;
+				d.tooBig = true;
+				continue;
+			}
+			if (!cd.use7zipOnly && ZipExtractor.canExtract(name)) {
+				item.archive = true;
+				d.found = true;
+				Layout layout = new Layout(d, t);
+				try {
+					if (e.method == ZipDirectory.STORED) {
+						item.note = "archive";
+						list(d, layout, item, moodle.nested(e, ZipExtractor.FALLBACK_CHARSET), "", 1);
+					} else {
+						item.note = "archive, compressed (entries read as a stream)";
+						list(d, layout, item, SizeGuard.guard(moodle.open(e), sizeGuard.file(),
+							sizeGuard.ratio(e.compressedSize)), "", 1);
+					}
+				} catch (SizeGuard.LimitException ex) {
+					item.note = "archive, too big: " + ex.getMessage();
+					d.tooBig = true;
+				} catch (IOException ex) {
+					item.note = "archive, could not be read: " + ex.getMessage();
+				}
+				continue;
+			}
+			if (Unzipper.isZipFile(name)) {
+				item.archive = true;
+				item.note = "archive for 7-zip, entries not listed";
+				d.found = true;
+				continue;
+			}
+			written(d, item, assign(Unzipper.submissionName(cd, t, name)));
+		}
+		if (sizeGuard.maxStudent >= 0 && d.size > sizeGuard.maxStudent) {
+			// would be aborted while unpacking
+			d.tooBig = true;
+		}
+	}
+
+	/**
+	 * The target names for the entries of a delivered archive, see EntryRouter.
+	 */
+	private class Layout extends EntryRouter<Item> {
+		final Delivery d;
+
+		Layout(Delivery d, StudentName t) {
+			super(Inventory.this.cd, t, treeFilter);
+			this.d = d;
+		}
+
+		@Override
+		void file(String toName, Item item) {
+			written(d, item, assign(toName));
+		}
+
+		@Override
+		String directory(String toName) {
+			return assign(toName);
+		}
+
+		@Override
+		void fileIn(String dir, String path, Item item) {
+			written(d, item, dir + File.separator + path.replace('/', File.separatorChar));
+		}
+	}
+
+	/**
+	 * Lists an archive read by random access.
+	 */
+	private void list(Delivery d, Layout layout, Item archive, ZipDirectory dir, String prefix, int depth) {
+		for (ZipDirectory.Entry e: dir.entries) {
+			String name = entryName(e.name);
+			if (e.isDirectory() || name.length() == 0) {
+				continue;
+			}
+			Item item = entry(d, layout, archive, name, e.size, e.compressedSize, prefix, depth);
+			if (item.archive) {
+				String nested = EntryRouter.nestedPrefix(prefix, name);
+				try {
+					if (e.method == ZipDirectory.STORED) {
+						list(d, layout, item, dir.nested(e, ZipExtractor.FALLBACK_CHARSET), nested, depth + 1);
+					} else {
+						list(d, layout, item, dir.open(e), nested, depth + 1);
+					}
+				} catch (IOException ex) {
+					item.note = "archive, could not be read: " + ex.getMessage();
+				}
+			}
+		}
+		if (archive.entries.isEmpty()) {
+			archive.note = "archive is empty or no zip file";
+		}
+	}
+
+	/**
+	 * Lists an archive, which can only be read as a stream. The data of the entries is
+	 * read to get to the next entry (and to get the sizes), but it is not kept.
+	 */
+	private void list(Delivery d, Layout layout, Item archive, InputStream in, String prefix, int depth)
+		throws IOException {
+		ZipInputStream zin = new ZipInputStream(ZipExtractor.nonClosing(in), ZipExtractor.FALLBACK_CHARSET);
+		ZipEntry e;
+		while ((e = zin.getNextEntry()) != null) {
+			String name = entryName(e.getName());
+			if (e.isDirectory() || name.length() == 0) {
+				continue;
+			}
+			if (!EntryRouter.isNested(cd, name, depth)) {
+				zin.closeEntry();
+			}
+			Item item = entry(d, layout, archive, name, e.getSize(), e.getCompressedSize(), prefix, depth);
+			if (item.archive) {
+				try {
+					list(d, layout, item, zin, EntryRouter.nestedPrefix(prefix, name), depth + 1);
+				} catch (SizeGuard.LimitException ex) {
+					throw ex;
+				} catch (IOException ex) {
+					item.note = "archive, could not be read: " + ex.getMessage();
+				}
+			}
+		}
+		if (archive.entries.isEmpty()) {
+			archive.note = "archive is empty or no zip file";
+		}
+	}
+
+	private static String entryName(String name) {
+		name = name.replace('\\', '/');
+		while (name.startsWith("/")) {
+			name = name.substring(1);
+		}
+		return name;
+	}
+
+	/**
+	 * An entry of a delivered archive, see Unzipper.ArchiveRouter.accept.
+	 */
+	private Item entry(Delivery d, Layout layout, Item archive, String name, long size, long compressed,
+		String prefix, int depth) {
+		Item item = new Item(name, size);
+		archive.entries.add(item);
+		if (("/" + name + "/").contains("/../")) {
+			item.note = "skipped, outside of the archive";
+			return item;
+		}
+		String tooBig = sizeGuard.check(size, compressed);
+		if (tooBig != null) {
+			item.note = "too big, " + tooBig;
+			d.tooBig = true;
+			return item;
+		}
+		if (EntryRouter.isNested(cd, name, depth)) {
+			item.archive = true;
+			item.note = "archive";
+			return item;
+		}
+		if (!layout.route(prefix + name, item)) {
+			item.note = "excluded";
+		}
+		return item;
+	}
+
+	private void written(Delivery d, Item item, String target) {
+		item.target = target;
+		d.found = true;
+		d.size += Math.max(item.size, 0);
+		written.add(item);
+	}
+
+	/**
+	 * The next name from the registry, a rename of the first file or directory of the
+	 * family is applied to the items written there.
+	 */
+	private String assign(String toName) {
+		TargetNameRegistry.Assignment a = targetNames.assign(toName);
+		if (a.renameFrom != null) {
+			for (Item item: written) {
+				if (item.target.equals(a.renameFrom)) {
+					item.target = a.renameTo;
+				} else if (item.target.startsWith(a.renameFrom + File.separator)) {
+					item.target = a.renameTo + item.target.substring(a.renameFrom.length());
+				}
+			}
+		}
+		return a.target;
+	}
+
+	/**
+	 * Sets the predicted FileInfo of the students.
+	 */
+	void predict() {
+		for (Delivery d: deliveries) {
+			d.student.fileInfo = d.fileInfo();
+		}
+	}
+
+	void print(PrintStream out) {
+		Path base = Paths.get(cd.unzipDir).toAbsolutePath().normalize();
+		long files = 0;
+		long bytes = 0;
+		for (Delivery d: deliveries) {
+			out.println(d.student.getName() + " (" + d.student.subDir + "): " + d.fileInfo() + ", " +
+				d.items.size() + " files" + (d.skipped == null ? "" : ", skipped: " + d.skipped));
+			for (Item item: d.items) {
+				print(out, base, item, "   ");
+			}
+			files += count(d.items);
+			bytes += d.size;
+		}
+		out.println("would write " + files + " files, " + bytes + " bytes to \"" + cd.unzipDir + "\"" +
+			(cd.fst == FileStructureType.singleDir ? " (Java files are renamed after their class)" : ""));
+	}
+
+	private static void print(PrintStream out, Path base, Item item, String indent) {
+		String size = item.size < 0 ? "?" : String.valueOf(item.size);
+		String what = item.target != null ? "-> " + base.relativize(Paths.get(item.target)) : item.note;
+		out.println(String.format("%s%-" + Math.max(1, 48 - indent.length()) + "s %10s  %s", indent, item.path,
+			size, what));
+		for (Item e: item.entries) {
+			print(out, base, e, indent + "   ");
+		}
+	}
+
+	private static long count(List<Item> items) {
+		long n = 0;
+		for (Item item: items) {
+			n += item.target != null ? 1 : count(item.entries);
+		}
+		return n;
+	}
+}
@@ -0,0 +1,289 @@
+package moodleHelp;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Sets the package declaration of a Java source file and finds the name of its
+ * first class (see Unzipper.updatePackage). The file is read once as a stream.
+ * Only the lines up to the package declaration are kept in memory; if the
+ * declaration does not change, the file is not written at all. Otherwise the
+ * new content is written to a temporary file, which then replaces the source.
+ * The encoding is kept: a BOM decides, otherwise UTF-8 is tried and
+ * windows-1252 is used, if the file is no valid UTF-8.
+ * <p>
+ * A source on its way to the disk (see StagedPipeline) is rewritten in memory
+ * the same way, so it is never read back from the file.
+ */
+class JavaSourceRewriter {
+
+	static final Charset WINDOWS_1252 = Charset.forName("windows-1252");
+	private static final byte[] UTF8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+	private static final Pattern CLASS_PATTERN = Pattern.compile(".*(^|\\s)class(\\s+)([a-zA-Z]\\w*).*");
+
+	static class Result {
+		// true, if the file has been rewritten
+		boolean changed;
+		// name of the first class, null if none was found
+		String className;
+		Charset charset;
+		// rewrite(byte[],...): the new source, the same array if nothing changed
+		byte[] content;
+	}
+
+	/**
+	 * Opens the output, when the package declaration changes.
+	 */
+	private interface Target {
+		OutputStream open() throws IOException;
+	}
+
+	// null: detect the encoding
+	private final Charset encoding;
+
+	JavaSourceRewriter(Charset encoding) {
+		this.encoding = encoding;
+	}
+
+	JavaSourceRewriter() {
+		this(null);
+	}
+
+	/**
+	 * @param packageName the new package, null for the default package
+	 */
+	Result rewrite(Path file, String packageName) throws IOException {
+		boolean bom = hasUtf8Bom(file);
+		if (bom || encoding != null) {
+			return rewrite(file, packageName, bom ? StandardCharsets.UTF_8 : encoding, bom);
+		}
+		try {
+			return rewrite(file, packageName, StandardCharsets.UTF_8, false);
+		} catch (CharacterCodingException e) {
+			return rewrite(file, packageName, WINDOWS_1252, false);
+		}
+	}
+
+	/**
+	 * Rewrites a source in memory.
+	 * @param packageName the new package, null for the default package
+	 */
+	Result rewrite(byte[] source, String packageName) throws IOException {
+		boolean bom = hasUtf8Bom(source, source.length);
+		if (bom || encoding != null) {
+			return rewrite(source, packageName, bom ? StandardCharsets.UTF_8 : encoding, bom);
+		}
+		try {
+			return rewrite(source, packageName, StandardCharsets.UTF_8, false);
+		} catch (CharacterCodingException e) {
+			return rewrite(source, packageName, WINDOWS_1252, false);
+		}
+	}
+
+	private static boolean hasUtf8Bom(Path file) throws IOException {
+		byte[] b = new byte[3];
+		try (InputStream in = Files.newInputStream(file)) {
+			return hasUtf8Bom(b, in.readNBytes(b, 0, 3));
+		}
+	}
+
+	private static boolean hasUtf8Bom(byte[] b, int n) {
+		return n >= 3 && b[0] == UTF8_BOM[0] && b[1] == UTF8_BOM[1] && b[2] == UTF8_BOM[2];
+	}
+
+	private Result rewrite(Path file, String packageName, Charset charset, boolean bom) throws IOException {
+		Path[] tmp = new Path[1];
+		try (InputStream is = Files.newInputStream(file)) {
+			Result result = rewrite(is, packageName, charset, bom, () -> {
+				tmp[0] = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+				return Files.newOutputStream(tmp[0]);
+			});
+			if (result.changed) {
+				try {
+					Files.move(tmp[0], file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				} catch (AtomicMoveNotSupportedException e) {
+					Files.move(tmp[0], file, StandardCopyOption.REPLACE_EXISTING);
+				}
+				tmp[0] = null;
+			}
+			return result;
+		} finally {
+			if (tmp[0] != null) {
+				Files.deleteIfExists(tmp[0]);
+			}
+		}
+	}
+
+	private Result rewrite(byte[] source, String packageName, Charset charset, boolean bom) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(source.length + 64);
+		Result result = rewrite(new ByteArrayInputStream(source), packageName, charset, bom, () -> out);
+		result.content = result.changed ? out.toByteArray() : source;
+		return result;
+	}
+
+	/**
+	 * Reads the source from is, the new source is only written to the target, if the
+	 * package declaration changes.
+	 */
+	private Result rewrite(InputStream is, String packageName, Charset charset, boolean bom, Target target) 
+		throws IOException {
+		Result result = new Result();
+		result.charset = charset;
+		CharsetDecoder decoder = charset.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPORT)
+			.onUnmappableCharacter(CodingErrorAction.REPORT);
+		Writer w = null;
+		try {
+			if (bom) {
+				is.skip(UTF8_BOM.length);
+			}
+			LineReader in = new LineReader(new InputStreamReader(is, decoder));
+			List<String> header = new ArrayList<String>();
+			boolean packageWritten = false;
+			boolean isComment = false;
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (packageWritten && result.className != null && w == null) {
+					// nothing to change, the rest of the file is not needed
+					break;
+				}
+				String l1 = line.trim();
+				String out = line;
+				if (l1.length() > 0 && (!packageWritten || result.className == null)) {
+					if (!isComment) {
+						if (l1.startsWith("//")) {
+							// comment line
+						} else if (l1.startsWith("/*") && !l1.contains("*/")) {
+							isComment = true;
+						} else {
+							if (!packageWritten) {
+								String eol = line.substring(stripEol(line).length());
+								if (eol.length() == 0) {
+									eol = System.lineSeparator();
+								}
+								String packageLine = packageName == null ? "" : "package " + packageName + ";";
+								if (l1.contains("package ")) {
+									out = packageLine + eol;
+								} else {
+									out = (packageName == null ? "" : packageLine + eol) + line;
+								}
+								packageWritten = true;
+								if (!out.equals(line)) {
+									// the package changes: from now on write the new file
+									OutputStream os = new BufferedOutputStream(target.open());
+									if (bom) {
+										os.write(UTF8_BOM);
+									}
+									w = new OutputStreamWriter(os, charset.newEncoder()
+										.onMalformedInput(CodingErrorAction.REPORT)
+										.onUnmappableCharacter(CodingErrorAction.REPORT));
+									for (String h: header) {
+										w.write(h);
+									}
+									header = null;
+								}
+							}
+							if (result.className == null) {
+								Matcher m = CLASS_PATTERN.matcher(l1);
+								if (m.matches()) {
+									result.className = m.group(3);
+								}
+							}
+						}
+					} else if (l1.contains("*/")) {
+						isComment = false;
+					}
+				}
+				if (w != null) {
+					w.write(out);
+				} else if (header != null && !packageWritten) {
+					header.add(out);
+				} else {
+					header = null;
+				}
+			}
+			if (w != null) {
+				w.close();
+				w = null;
+				result.changed = true;
+			}
+			return result;
+		} finally {
+			if (w != null) {
+				try {
+					w.close();
+				} catch (IOException e) {
+					// the original exception is more important
+				}
+			}
+		}
+	}
+
+	private static String stripEol(String line) {
+		int end = line.length();
+		while (end > 0 && (line.charAt(end - 1) == '\n' || line.charAt(end - 1) == '\r')) {
+			end--;
+		}
+		return line.substring(0, end);
+	}
+
+	/**
+	 * Reads lines including their line terminator, so the line ends of the file are kept.
+	 */
+	static class LineReader {
+		private final Reader in;
+		private final char[] buffer = new char[8192];
+		private int pos = 0;
+		private int len = 0;
+
+		LineReader(Reader in) {
+			this.in = in;
+		}
+
+		private int read() throws IOException {
+			if (pos == len) {
+				len = in.read(buffer, 0, buffer.length);
+				pos = 0;
+				if (len <= 0) {
+					len = 0;
+					return -1;
+				}
+			}
+			return buffer[pos++];
+		}
+
+		private int peek() throws IOException {
+			int c = read();
+			if (c >= 0) {
+				pos--;
+			}
+			return c;
+		}
+
+		/**
+		 * @return the next line with its terminator ("\n", "\r\n" or "\r"), null at the end
+		 */
+		String readLine() throws IOException {
+			StringBuilder sb = new StringBuilder();
+			int c;
+			while ((c = read()) >= 0) {
+				sb.append((char) c);
+				if (c == '\n') {
+					break;
+				}
+				if (c == '\r') {
+					if (peek() == '\n') {
+						sb.append((char) read());
+					}
+					break;
+				}
+			}
+			return sb.length() == 0 ? null : sb.toString();
+		}
+	}
+}
@@ -0,0 +1,236 @@
+package moodleHelp;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.Arrays;
+
+import jdk.jfr.*;
+
+/**
+ * Java Flight Recorder events for the expensive operations of the unzipper
+ * (option -jfr). Each event carries the student, whose delivery is processed on
+ * the current thread. As long as the option is not set, the factory methods
+ * return null and no event is created at all.
+ */
+final class JfrEvents {
+	private static final String CATEGORY = "Moodle Unzipper";
+
+	// set by -jfr, read on every operation
+	private static volatile boolean enabled = false;
+	private static final ThreadLocal<String> STUDENT = new ThreadLocal<String>();
+
+	private JfrEvents() {
+	}
+
+	@Name("moodleHelp.Extract")
+	@Label("Extract Archive")
+	@Category(CATEGORY)
+	static class ExtractEvent extends Event {
+		@Label("Student") String student;
+		@Label("Archive") String archive;
+		@Label("Target") String target;
+		@Label("Tool") String tool;
+		@Label("Entries") long entries;
+		@DataAmount @Label("Bytes") long bytes;
+		@Label("Outcome") String outcome;
+
+		void done(String archive, String target, String tool, long entries, long bytes, String outcome) {
+			this.archive = archive;
+			this.target = target;
+			this.tool = tool;
+			this.entries = entries;
+			this.bytes = bytes;
+			this.outcome = outcome;
+			commit();
+		}
+	}
+
+	@Name("moodleHelp.Copy")
+	@Label("Copy File or Directory")
+	@Category(CATEGORY)
+	static class CopyEvent extends Event {
+		@Label("Student") String student;
+		@Label("From") String from;
+		@Label("To") String to;
+		@Label("Files") long files;
+		@DataAmount @Label("Bytes") long bytes;
+		@Label("Outcome") String outcome;
+
+		void done(String from, String to, long files, long bytes, String outcome) {
+			this.from = from;
+			this.to = to;
+			this.files = files;
+			this.bytes = bytes;
+			this.outcome = outcome;
+			commit();
+		}
+	}
+
+	@Name("moodleHelp.Rename")
+	@Label("Rename File or Directory")
+	@Category(CATEGORY)
+	static class RenameEvent extends Event {
+		@Label("Student") String student;
+		@Label("From") String from;
+		@Label("To") String to;
+		@Label("Outcome") String outcome;
+
+		void done(String from, String to, String outcome) {
+			this.from = from;
+			this.to = to;
+			this.outcome = outcome;
+			commit();
+		}
+	}
+
+	@Name("moodleHelp.Delete")
+	@Label("Delete Directory Tree")
+	@Category(CATEGORY)
+	static class DeleteEvent extends Event {
+		@Label("Student") String student;
+		@Label("Path") String path;
+		@Label("Background") boolean background;
+		@Label("Outcome") String outcome;
+
+		void done(String path, boolean background, String outcome) {
+			this.path = path;
+			this.background = background;
+			this.outcome = outcome;
+			commit();
+		}
+	}
+
+	@Name("moodleHelp.Rewrite")
+	@Label("Rewrite Package Declaration")
+	@Category(CATEGORY)
+	static class RewriteEvent extends Event {
+		@Label("Student") String student;
+		@Label("File") String file;
+		@Label("Package") String packageName;
+		@Label("Changed") boolean changed;
+		@Label("Charset") String charset;
+		@Label("Outcome") String outcome;
+
+		void done(String file, String packageName, boolean changed, String charset, String outcome) {
+			this.file = file;
+			this.packageName = packageName;
+			this.changed = changed;
+			this.charset = charset;
+			this.outcome = outcome;
+			commit();
+		}
+	}
+
+	@Name("moodleHelp.Student")
+	@Label("Process Student")
+	@Category(CATEGORY)
+	static class StudentEvent extends Event {
+		@Label("Student") String student;
+		@Label("Items") int items;
+		@Label("Outcome") String outcome;
+
+		void done(int items, String outcome) {
+			this.items = items;
+			this.outcome = outcome;
+			commit();
+		}
+	}
+
+	/**
+	 * Starts a recording with the JDK default settings and all unzipper events.
+	 * The recording is written to file, when it is stopped.
+	 */
+	static Recording start(Path file) throws IOException {
+		Recording r;
+		try {
+			r = new Recording(Configuration.getConfiguration("default"));
+		} catch (ParseException e) {
+			r = new Recording();
+		}
+		for (Class<? extends Event> c: Arrays.asList(ExtractEvent.class, CopyEvent.class,
+			RenameEvent.class, DeleteEvent.class, RewriteEvent.class, StudentEvent.class)) {
+			r.enable(c);
+		}
+		r.setDestination(file);
+		r.setToDisk(true);
+		enabled = true;
+		r.start();
+		return r;
+	}
+
+	static void stop(Recording r) {
+		enabled = false;
+		r.stop();
+		r.close();
+	}
+
+	/**
+	 * The student processed on the current thread, null when the thread has finished it.
+	 */
+	static void setStudent(String name) {
+		if (enabled) {
+			STUDENT.set(name);
+		}
+	}
+
+	static ExtractEvent extract() {
+		if (!enabled) {
+			return null;
+		}
+		ExtractEvent e = new ExtractEvent();
+		e.student = STUDENT.get();
+		e.begin();
+		return e;
+	}
+
+	static CopyEvent copy() {
+		if (!enabled) {
+			return null;
+		}
+		CopyEvent e = new CopyEvent();
+		e.student = STUDENT.get();
+		e.begin();
+		return e;
+	}
+
+	static RenameEvent rename() {
+		if (!enabled) {
+			return null;
+		}
+		RenameEvent e = new RenameEvent();
+		e.student = STUDENT.get();
+		e.begin();
+		return e;
+	}
+
+	static DeleteEvent delete() {
+		if (!enabled) {
+			return null;
+		}
+		DeleteEvent e = new DeleteEvent();
+		e.student = STUDENT.get();
+		e.begin();
+		return e;
+	}
+
+	static RewriteEvent rewrite() {
+		if (!enabled) {
+			return null;
+		}
+		RewriteEvent e = new RewriteEvent();
+		e.student = STUDENT.get();
+		e.begin();
+		return e;
+	}
+
+	static StudentEvent processStudent() {
+		if (!enabled) {
+			return null;
+		}
+		StudentEvent e = new StudentEvent();
+		e.student = STUDENT.get();
+		e.begin();
+		return e;
+	}
+}
@@ -0,0 +1,202 @@
+package moodleHelp;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A resident unzipper (option -daemon), which accepts jobs from a thin client
+ * (option -client) on a loopback socket, so a job does not pay for the JVM
+ * start, class loading and JIT warm-up any more.
+ * <p>
+ * Protocol, UTF-8 lines: the client sends the token of the daemon, the number of
+ * arguments and then one argument per line. The server streams everything the job
+ * prints back and ends with a line starting with END, followed by "ok" or the error
+ * message.
+ * <p>
+ * Every local user can connect to the loopback socket, but a job runs (and deletes
+ * directories) with the rights of the daemon. So the daemon creates a random token at
+ * start and writes it to a file in the home directory, which only its owner can read
+ * (see tokenFile). A connection without this token is closed before its arguments are
+ * read.
+ * <p>
+ * The jobs are executed one after the other, a further client waits in the
+ * backlog of the server socket. This is what makes it possible to redirect
+ * System.out and System.err, which the unzipper (and its worker threads) use
+ * for all messages, to the client of the current job.
+ */
+class JobServer {
+	// cannot appear in the output of a job
+	private static final String END = "\u0004";
+	// sent instead of a job, stops the server
+	static final String STOP = "-stop";
+	// an unauthorized client must not block the daemon
+	private static final int READ_TIMEOUT = 10000;
+
+	private final int port;
+	private final Consumer<String[]> runner;
+
+	/**
+	 * @param runner executes the job with the given arguments
+	 */
+	JobServer(int port, Consumer<String[]> runner) {
+		this.port = port;
+		this.runner = runner;
+	}
+
+	/**
+	 * Accepts jobs until a client sends STOP.
+	 */
+	void serve() throws IOException {
+		PrintStream console = System.out;
+		PrintStream consoleErr = System.err;
+		Path tokenFile = tokenFile(port);
+		try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+			// first bound, a daemon already running on the port keeps its token
+			byte[] token = writeToken(tokenFile);
+			console.println("Daemon listening on " + server.getLocalSocketAddress() + ", token in " + tokenFile);
+			while (true) {
+				try (Socket s = server.accept()) {
+					s.setSoTimeout(READ_TIMEOUT);
+					BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(),
+						StandardCharsets.UTF_8));
+					PrintStream out = new PrintStream(new BufferedOutputStream(s.getOutputStream()),
+						true, "UTF-8");
+					String sent = in.readLine();
+					if (sent == null || !MessageDigest.isEqual(token, sent.getBytes(StandardCharsets.UTF_8))) {
+						console.println("Connection rejected: wrong token");
+						out.println(END + "wrong token, see " + tokenFile);
+						continue;
+					}
+					String[] args = readArgs(in);
+					if (args == null) {
+						continue;
+					}
+					if (args.length == 1 && args[0].equals(STOP)) {
+						out.println(END + "ok");
+						console.println("Daemon stopped.");
+						return;
+					}
+					console.println("Job: " + String.join(" ", args));
+					long start = System.currentTimeMillis();
+					String result = "ok";
+					System.setOut(out);
+					System.setErr(out);
+					try {
+						runner.accept(args);
+					} catch (RuntimeException e) {
+						// the client gets the message, the daemon keeps the stack trace
+						e.printStackTrace(consoleErr);
+						result = e.getMessage() == null ? e.toString() : e.getMessage();
+					} finally {
+						System.setOut(console);
+						System.setErr(consoleErr);
+					}
+					out.println(END + result);
+					console.println("   " + result + ", " + (System.currentTimeMillis() - start) + " ms");
+				} catch (IOException e) {
+					console.println("Connection failed: " + e);
+				}
+			}
+		} finally {
+			Files.deleteIfExists(tokenFile);
+		}
+	}
+
+	/**
+	 * The file with the token of the daemon on port: .moodleUnzipper-daemon-&lt;port&gt; in
+	 * the home directory. Only a client of the same user can read it.
+	 */
+	static Path tokenFile(int port) {
+		return Paths.get(System.getProperty("user.home"), ".moodleUnzipper-daemon-" + port);
+	}
+
+	/**
+	 * Creates a new random token and writes it to file, on POSIX file systems readable
+	 * by the owner only (on Windows the home directory is private anyway).
+	 */
+	private static byte[] writeToken(Path file) throws IOException {
+		byte[] random = new byte[32];
+		new SecureRandom().nextBytes(random);
+		StringBuilder sb = new StringBuilder();
+		for (byte b: random) {
+			sb.append(String.format("%02x", b));
+		}
+		byte[] token = sb.toString().getBytes(StandardCharsets.UTF_8);
+		Files.deleteIfExists(file);
+		if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+			Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		} else {
+			Files.createFile(file);
+		}
+		Files.write(file, token);
+		return token;
+	}
+
+	private static String[] readArgs(BufferedReader in) throws IOException {
+		String count = in.readLine();
+		if (count == null) {
+			return null;
+		}
+		List<String> args = new ArrayList<String>();
+		try {
+			for (int i = Integer.parseInt(count.trim()); i > 0; i--) {
+				String arg = in.readLine();
+				if (arg == null) {
+					return null;
+				}
+				args.add(arg);
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		return args.toArray(new String[args.size()]);
+	}
+
+	/**
+	 * The thin client: sends the token and the arguments, prints the output of the job.
+	 * @return true if the job succeeded
+	 * @throws IOException also if the token file of the daemon cannot be read
+	 */
+	static boolean submit(int port, String[] args) throws IOException {
+		String token;
+		try {
+			token = new String(Files.readAllBytes(tokenFile(port)), StandardCharsets.UTF_8).trim();
+		} catch (NoSuchFileException e) {
+			throw new IOException("no token file " + tokenFile(port), e);
+		}
+		try (Socket s = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			Writer w = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8));
+			w.write(token + "\n");
+			w.write(args.length + "\n");
+			for (String arg: args) {
+				w.write(arg.replace('\n', ' ') + "\n");
+			}
+			w.flush();
+			BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(),
+				StandardCharsets.UTF_8));
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith(END)) {
+					String result = line.substring(END.length());
+					if (!result.equals("ok")) {
+						System.out.println("Job failed: " + result);
+					}
+					return result.equals("ok");
+				}
+				System.out.println(line);
+			}
+			System.out.println("Connection to the daemon lost.");
+			return false;
+		}
+	}
+}
@@ -0,0 +1,322 @@
+package moodleHelp;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Predicate;
+
+import moodleHelp.Unzipper.StudentName;
+
+/**
+ * The layout of a run without streaming, computed before anything is written (see
+ * Unzipper.planLayout): per student the files of the help directory and the entries of
+ * the delivered archives with their final names in the unzip directory, the directories
+ * to create and the directories whose Java files get their package afterwards.
+ * The names come from a TargetNameRegistry of the plan. When a family gets its second
+ * member and the first one has to be renamed to counter 1, the operations of the plan
+ * are changed instead, so the plan holds the final names. Only a name, which existed
+ * before the run, is renamed while the plan is executed.
+ * <p>
+ * A plan can be written (option -plan) and executed again later (option -replay). The
+ * file is a text file like the RunManifest, one operation per line, fields separated by
+ * tabs, sources relative to the help directory, targets relative to the unzip directory:
+ * <pre>
+ * config  &lt;configuration&gt;
+ * rename  &lt;existing name&gt;  &lt;new name&gt;
+ * student &lt;name&gt;  &lt;first name&gt;  &lt;subDir&gt;  &lt;moodleName&gt;  &lt;size&gt;  &lt;copy size&gt;  &lt;submissions&gt;
+ * mkdir   &lt;target&gt;
+ * copy    &lt;source&gt;  &lt;target&gt;
+ * entry   &lt;archive&gt;  &lt;path in the archive&gt;  &lt;target&gt;
+ * tooBig  &lt;message&gt;
+ * rewrite &lt;target&gt;
+ * </pre>
+ */
+class LayoutPlan {
+	private static final String HEADER = "# moodleUnzipper plan 1";
+
+	enum Kind {
+		// a directory, which is created even if nothing is written into it
+		mkdir,
+		// a file of the help directory
+		copy,
+		// an entry of a delivered archive, nested archives are directories in the path
+		entry,
+		// something was too big, source is the message
+		tooBig,
+		// the Java files of the directory get their package
+		rewrite,
+		// a name, which existed before the run, gets counter 1
+		rename
+	}
+
+	static class Op {
+		final Kind kind;
+		final String source;
+		final String path;
+		String target;
+
+		Op(Kind kind, String source, String path, String target) {
+			this.kind = kind;
+			this.source = source;
+			this.path = path;
+			this.target = target;
+		}
+	}
+
+	/**
+	 * The operations for a student, in the order they were planned.
+	 */
+	static class StudentPlan {
+		final StudentName student;
+		// all accepted submissions and the part, which is copied without unpacking
+		long size = 0;
+		long copySize = 0;
+		int submissions = 0;
+		final List<Op> ops = new ArrayList<Op>();
+
+		StudentPlan(StudentName student) {
+			this.student = student;
+		}
+	}
+
+	private final String helpDir;
+	private final String unzipDir;
+	private final TargetNameRegistry targetNames;
+	String config = "";
+	final List<Op> renames = new ArrayList<Op>();
+	final Map<StudentName, StudentPlan> students = new LinkedHashMap<StudentName, StudentPlan>();
+	// all operations with a target, for the renames of the registry
+	private final List<Op> named = new ArrayList<Op>();
+
+	/**
+	 * @param exists whether a name exists in the unzip directory before the run
+	 */
+	LayoutPlan(String helpDir, String unzipDir, Predicate<String> exists) {
+		this.helpDir = helpDir;
+		this.unzipDir = unzipDir;
+		targetNames = new TargetNameRegistry(exists);
+	}
+
+	StudentPlan student(StudentName t) {
+		return students.computeIfAbsent(t, StudentPlan::new);
+	}
+
+	/**
+	 * The next name for toName (see Unzipper.resolveSpecial).
+	 */
+	String assign(String toName) {
+		TargetNameRegistry.Assignment a = targetNames.assign(toName);
+		if (a.renameFrom != null) {
+			boolean planned = false;
+			for (Op op: named) {
+				if (op.target.equals(a.renameFrom)) {
+					op.target = a.renameTo;
+					planned = true;
+				} else if (op.target.startsWith(a.renameFrom + File.separator)) {
+					op.target = a.renameTo + op.target.substring(a.renameFrom.length());
+					planned = true;
+				}
+			}
+			if (!planned) {
+				renames.add(new Op(Kind.rename, a.renameFrom, null, a.renameTo));
+			}
+		}
+		return a.target;
+	}
+
+	void add(StudentPlan sp, Kind kind, String source, String path, String target) {
+		Op op = new Op(kind, source, path, target);
+		sp.ops.add(op);
+		if (target != null) {
+			named.add(op);
+		}
+	}
+
+	/**
+	 * All directories of the plan including their parents within the unzip directory,
+	 * sorted, so a directory comes after its parent.
+	 */
+	SortedSet<String> directories() {
+		SortedSet<String> dirs = new TreeSet<String>();
+		for (StudentPlan sp: students.values()) {
+			for (Op op: sp.ops) {
+				switch (op.kind) {
+				case mkdir:
+					addWithParents(dirs, op.target);
+					break;
+				case copy:
+				case entry:
+					addWithParents(dirs, new File(op.target).getParent());
+					break;
+				default:
+					break;
+				}
+			}
+		}
+		return dirs;
+	}
+
+	private void addWithParents(Set<String> dirs, String dir) {
+		while (dir != null && dir.startsWith(unzipDir + File.separator) && dirs.add(dir)) {
+			dir = new File(dir).getParent();
+		}
+	}
+
+	/**
+	 * Number of files, which are copied or unpacked.
+	 */
+	int files() {
+		int n = 0;
+		for (StudentPlan sp: students.values()) {
+			for (Op op: sp.ops) {
+				if (op.kind == Kind.copy || op.kind == Kind.entry) {
+					n++;
+				}
+			}
+		}
+		return n;
+	}
+
+	void write(Path file) throws IOException {
+		try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			w.write(HEADER);
+			w.newLine();
+			w.write("config\t" + config);
+			w.newLine();
+			for (Op op: renames) {
+				write(w, op);
+			}
+			for (StudentPlan sp: students.values()) {
+				StudentName t = sp.student;
+				w.write("student\t" + RunManifest.escape(t.name) + "\t" +
+					RunManifest.escape(t.vorName == null ? "" : t.vorName) + "\t" + RunManifest.escape(t.subDir) +
+					"\t" + RunManifest.escape(t.moodleName) + "\t" + sp.size + "\t" + sp.copySize + "\t" +
+					sp.submissions);
+				w.newLine();
+				for (Op op: sp.ops) {
+					write(w, op);
+				}
+			}
+		}
+	}
+
+	private void write(BufferedWriter w, Op op) throws IOException {
+		StringBuilder sb = new StringBuilder(op.kind.name());
+		switch (op.kind) {
+		case tooBig:
+			sb.append('\t').append(RunManifest.escape(op.source));
+			break;
+		case copy:
+			sb.append('\t').append(relative(helpDir, op.source));
+			sb.append('\t').append(relative(unzipDir, op.target));
+			break;
+		case entry:
+			sb.append('\t').append(relative(helpDir, op.source));
+			sb.append('\t').append(RunManifest.escape(op.path));
+			sb.append('\t').append(relative(unzipDir, op.target));
+			break;
+		case rename:
+			sb.append('\t').append(relative(unzipDir, op.source));
+			sb.append('\t').append(relative(unzipDir, op.target));
+			break;
+		default:
+			sb.append('\t').append(relative(unzipDir, op.target));
+			break;
+		}
+		w.write(sb.toString());
+		w.newLine();
+	}
+
+	/**
+	 * Reads a plan written by write. The students are looked up in the student list by
+	 * name and subDir, a student, which is not there (e.g. attached from another class),
+	 * is added.
+	 */
+	static LayoutPlan read(Path file, String helpDir, String unzipDir, Collection<StudentName> studentList)
+		throws IOException {
+		LayoutPlan plan = new LayoutPlan(helpDir, unzipDir, name -> false);
+		try (BufferedReader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line = r.readLine();
+			if (!HEADER.equals(line)) {
+				throw new IOException("no layout plan");
+			}
+			StudentPlan act = null;
+			int lineNumber = 1;
+			while ((line = r.readLine()) != null) {
+				lineNumber++;
+				String[] f = line.split("\t", -1);
+				try {
+					switch (f[0]) {
+					case "config":
+						plan.config = line.substring(f[0].length() + 1);
+						break;
+					case "rename":
+						plan.renames.add(new Op(Kind.rename, absolute(unzipDir, f[1]), null, absolute(unzipDir, f[2])));
+						break;
+					case "student":
+						act = plan.student(find(studentList, RunManifest.unescape(f[1]), RunManifest.unescape(f[2]),
+							RunManifest.unescape(f[3]), RunManifest.unescape(f[4])));
+						act.size = Long.parseLong(f[5]);
+						act.copySize = Long.parseLong(f[6]);
+						act.submissions = Integer.parseInt(f[7]);
+						break;
+					case "tooBig":
+						act.ops.add(new Op(Kind.tooBig, RunManifest.unescape(f[1]), null, null));
+						break;
+					case "copy":
+						act.ops.add(new Op(Kind.copy, absolute(helpDir, f[1]), null, absolute(unzipDir, f[2])));
+						break;
+					case "entry":
+						act.ops.add(new Op(Kind.entry, absolute(helpDir, f[1]), RunManifest.unescape(f[2]),
+							absolute(unzipDir, f[3])));
+						break;
+					case "mkdir":
+					case "rewrite":
+						act.ops.add(new Op(Kind.valueOf(f[0]), null, null, absolute(unzipDir, f[1])));
+						break;
+					default:
+						break;
+					}
+				} catch (RuntimeException e) {
+					throw new IOException("invalid line " + lineNumber + ": " + line, e);
+				}
+			}
+		}
+		return plan;
+	}
+
+	private static StudentName find(Collection<StudentName> studentList, String name, String vorName, String subDir,
+		String moodleName) {
+		for (StudentName t: studentList) {
+			if (t.name.equals(name) && Objects.equals(t.vorName == null ? "" : t.vorName, vorName) &&
+				t.subDir.equals(subDir)) {
+				return t;
+			}
+		}
+		StudentName t = new StudentName(name);
+		t.vorName = vorName.length() > 0 ? vorName : null;
+		t.subDir = subDir;
+		t.moodleName = moodleName;
+		studentList.add(t);
+		return t;
+	}
+
+	/**
+	 * The name relative to base with '/' as separator, escaped for the file.
+	 */
+	private static String relative(String base, String name) {
+		if (name.startsWith(base + File.separator)) {
+			name = name.substring(base.length() + 1).replace(File.separatorChar, '/');
+		}
+		return RunManifest.escape(name);
+	}
+
+	private static String absolute(String base, String field) {
+		String name = RunManifest.unescape(field);
+		if (new File(name).isAbsolute()) {
+			return name;
+		}
+		return base + File.separator + name.replace('/', File.separatorChar);
+	}
+}
@@ -0,0 +1,381 @@
+package moodleHelp;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates synthetic Moodle downloads together with a matching roster, so that
+ * runs of any size can be reproduced locally. The files are written in the same
+ * places the unzipper looks for them: &lt;workDir&gt;\Klasse-&lt;class&gt;\&lt;task&gt;.zip
+ * and &lt;nameDir&gt;\Klasse-&lt;class&gt;.txt. Everything is streamed, nested archives
+ * are written directly into the enclosing archive, so even multi-GB downloads
+ * need little memory. The same seed always gives the same download.
+ */
+public class MoodleArchiveGenerator {
+	private static final String[] SYLLABLES = {"ma", "ier", "hu", "ber", "gru", "wa", "gner", "stein",
+		"er", "mo", "ser", "lech", "ner", "bau", "hof", "mann", "pich", "ler", "zeh", "ent", "ko", "vac"};
+	private static final String[] FIRST_NAMES = {"Anna", "Max", "Karl", "Lena", "Paul", "Sophie", "Lukas",
+		"Julia", "David", "Laura", "Elias", "Marie", "Jakob", "Lea", "Felix", "Hannah"};
+
+	// Moodle layout: flat up to 06/2016, a directory per delivery from 09/2016
+	enum Layout {
+		old,
+		current
+	}
+
+	private static class Student {
+		String name;
+		String vorName;
+		// empty, if subDir and moodleName are the defaults
+		String subDir = "";
+		String moodleName = "";
+		int id;
+		// number of the group for group submissions, 0: no group
+		int group;
+		boolean delivers = true;
+	}
+
+	String workDir = ".";
+	String nameDir = ".";
+	String klasse = "GEN";
+	String task = "A01";
+	int students = 30;
+	Layout layout = Layout.current;
+	// 1: no group submissions
+	int groupSize = 1;
+	// 1: an archive per delivery, 2: with another archive within, ...
+	int nestingDepth = 1;
+	int filesPerDelivery = 5;
+	// median and maximum of the file sizes, the sizes are log-normally distributed
+	long medianSize = 4_000;
+	long maxSize = 10_000_000;
+	// percentage of students with the surname of another student or a surname, which is a prefix of another one
+	int collisionPercent = 10;
+	// percentage of students without delivery
+	int missingPercent = 5;
+	long seed = 42;
+
+	private Random random;
+	private long bytes;
+	private int files;
+
+	/**
+	 * Writes the roster and the Moodle download.
+	 */
+	void generate() throws IOException {
+		random = new Random(seed);
+		List<Student> roster = createStudents();
+		Path rosterFile = Paths.get(nameDir, "Klasse-" + klasse + ".txt");
+		Files.createDirectories(rosterFile.getParent());
+		writeRoster(rosterFile, roster);
+		Path zipFile = Paths.get(workDir, "Klasse-" + klasse, task + ".zip");
+		Files.createDirectories(zipFile.getParent());
+		try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(
+			Files.newOutputStream(zipFile), BufferPool.DEFAULT_BUFFER_SIZE), StandardCharsets.UTF_8)) {
+			for (Student s: roster) {
+				if (s.delivers) {
+					writeDelivery(zip, s);
+				}
+			}
+		}
+		System.out.println("Roster:   " + rosterFile + " (" + roster.size() + " students)");
+		System.out.println("Download: " + zipFile + " (" + files + " files, " + bytes + " bytes uncompressed, " +
+			Files.size(zipFile) + " bytes)");
+	}
+
+	private List<Student> createStudents() {
+		List<Student> result = new ArrayList<Student>();
+		Set<String> used = new HashSet<String>();
+		while (result.size() < students) {
+			Student s = new Student();
+			s.vorName = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+			if (!result.isEmpty() && random.nextInt(100) < collisionPercent) {
+				Student other = result.get(random.nextInt(result.size()));
+				if (random.nextBoolean()) {
+					// same surname, like siblings
+					s.name = other.name;
+				} else {
+					// the other surname is a prefix (Maier, Maierhofer)
+					s.name = other.name + SYLLABLES[random.nextInt(SYLLABLES.length)];
+				}
+			} else {
+				s.name = surname();
+			}
+			if (!used.add(s.name + " " + s.vorName)) {
+				continue;
+			}
+			s.id = 10000 + result.size() * 7 + random.nextInt(7);
+			s.delivers = random.nextInt(100) >= missingPercent;
+			result.add(s);
+		}
+		// students with the same surname need their own subDir and moodleName (see readNameFile)
+		Map<String, Integer> count = new HashMap<String, Integer>();
+		for (Student s: result) {
+			count.merge(s.name, 1, Integer::sum);
+		}
+		// the full first name, siblings often share the initial (Lukas, Lena); the subDir
+		// must neither collide with another sibling nor with the default subDir of a surname
+		Set<String> subDirs = new HashSet<String>();
+		for (Student s: result) {
+			if (count.get(s.name) == 1) {
+				subDirs.add(s.name.toLowerCase());
+			}
+		}
+		for (Student s: result) {
+			if (count.get(s.name) > 1) {
+				String subDir = (s.name + s.vorName).toLowerCase();
+				for (int i = 2; !subDirs.add(subDir); i++) {
+					subDir = (s.name + s.vorName).toLowerCase() + i;
+				}
+				s.subDir = subDir;
+				s.moodleName = (s.name + " " + s.vorName).toLowerCase();
+			}
+		}
+		if (groupSize > 1) {
+			for (int i = 0; i < result.size(); i++) {
+				result.get(i).group = i / groupSize + 1;
+			}
+		}
+		return result;
+	}
+
+	private String surname() {
+		StringBuilder sb = new StringBuilder();
+		int n = 2 + random.nextInt(2);
+		for (int i = 0; i < n; i++) {
+			sb.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+		}
+		sb.setCharAt(0, Character.toUpperCase(sb.charAt(0)));
+		return sb.toString();
+	}
+
+	/**
+	 * The roster in the format of Unzipper.readNameFile: name;vorName;ignore;subDir;moodleName
+	 */
+	private void writeRoster(Path file, List<Student> roster) throws IOException {
+		try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			w.write("* generated by MoodleArchiveGenerator, seed " + seed);
+			w.newLine();
+			for (Student s: roster) {
+				w.write(s.name + ";" + s.vorName);
+				if (s.subDir.length() > 0) {
+					w.write(";;" + s.subDir + ";" + s.moodleName);
+				}
+				w.newLine();
+			}
+		}
+	}
+
+	/**
+	 * The prefix of all entries of a delivery, as Moodle creates it.
+	 */
+	private String prefix(Student s) {
+		String p = (s.group > 0 ? "Gruppe " + s.group + "-" : "") + s.name + " " + s.vorName + "_" + s.id +
+			"_assignsubmission_file_";
+		return layout == Layout.current ? p + "/" : p;
+	}
+
+	private void writeDelivery(ZipOutputStream zip, Student s) throws IOException {
+		String prefix = prefix(s);
+		// an archive with the project and some single files
+		zip.putNextEntry(new ZipEntry(prefix + "Abgabe.zip"));
+		ZipOutputStream inner = new ZipOutputStream(nonClosing(zip), StandardCharsets.UTF_8);
+		writeProject(inner, "projekt/", nestingDepth - 1);
+		inner.finish();
+		zip.closeEntry();
+		int single = 1 + random.nextInt(2);
+		for (int i = 0; i < single; i++) {
+			zip.putNextEntry(new ZipEntry(prefix + (i == 0 ? "Protokoll.txt" : "Daten" + i + ".bin")));
+			writeContent(zip, i == 0);
+			zip.closeEntry();
+			files++;
+		}
+	}
+
+	/**
+	 * An Eclipse like project, for depth &gt; 0 with a nested library archive.
+	 */
+	private void writeProject(ZipOutputStream zip, String dir, int depth) throws IOException {
+		zip.putNextEntry(new ZipEntry(dir + ".project"));
+		zip.write("<projectDescription/>\n".getBytes(StandardCharsets.UTF_8));
+		zip.closeEntry();
+		for (int i = 0; i < filesPerDelivery; i++) {
+			boolean text = i % 3 != 2;
+			String name = text ? dir + "src/app/Class" + i + ".java" : dir + "res/data" + i + ".bin";
+			zip.putNextEntry(new ZipEntry(name));
+			if (text) {
+				zip.write(("package app;\n\npublic class Class" + i + " {\n").getBytes(StandardCharsets.UTF_8));
+			}
+			writeContent(zip, text);
+			if (text) {
+				zip.write("}\n".getBytes(StandardCharsets.UTF_8));
+			}
+			zip.closeEntry();
+			files++;
+		}
+		// compiled classes, which the unzipper ignores by default
+		zip.putNextEntry(new ZipEntry(dir + "bin/app/Class0.class"));
+		writeContent(zip, false);
+		zip.closeEntry();
+		if (depth > 0) {
+			zip.putNextEntry(new ZipEntry(dir + "lib/lib" + depth + ".jar"));
+			ZipOutputStream inner = new ZipOutputStream(nonClosing(zip), StandardCharsets.UTF_8);
+			writeProject(inner, "", depth - 1);
+			inner.finish();
+			zip.closeEntry();
+		}
+	}
+
+	/**
+	 * The nested archive must not close the entry of the enclosing archive.
+	 */
+	private static OutputStream nonClosing(OutputStream out) {
+		return new FilterOutputStream(out) {
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+	}
+
+	/**
+	 * Writes a file with a random size. Text compresses well, binary data (images,
+	 * videos) hardly at all.
+	 */
+	private void writeContent(OutputStream out, boolean text) throws IOException {
+		long size = Math.min(maxSize, Math.round(medianSize * Math.exp(1.5 * random.nextGaussian())));
+		byte[] buffer = new byte[(int) Math.min(size, BufferPool.DEFAULT_BUFFER_SIZE)];
+		long left = size;
+		while (left > 0) {
+			int n = (int) Math.min(left, buffer.length);
+			if (text) {
+				for (int i = 0; i < n; i++) {
+					buffer[i] = (byte) (i % 64 == 63 ? '\n' : 'a' + random.nextInt(8));
+				}
+			} else {
+				random.nextBytes(buffer);
+			}
+			out.write(buffer, 0, n);
+			left -= n;
+		}
+		bytes += size;
+	}
+
+	public static void help() {
+		System.out.println(
+			"Moodle Archive Generator: writes a synthetic moodle download and a matching name file\n" +
+			"   for tests and benchmarks of the unzipper.\n" +
+			"Parameters: \n" +
+			"-w <workingDir>: The download is written to <workingDir>\\Klasse-<class>\\<task>.zip. Default is \".\".\n" +
+			"-n <nameDir>: The name file is written to <nameDir>\\Klasse-<class>.txt. Default is \".\".\n" +
+			"-c <class>: The name of the class. Default is GEN.\n" +
+			"-a <task>: The name of the task. Default is A01.\n" +
+			"-s <students>: Number of students. Default is 30.\n" +
+			"-l old|current: Moodle layout: \"old\" (up to 06/2016) has all files in the root directory,\n" +
+			"   \"current\" (from 09/2016) a directory per delivery. Default is current.\n" +
+			"-g <size>: Group submissions (\"Gruppe <n>-\" prefix) with groups of the given size.\n" +
+			"-d <depth>: Nesting depth of archives: 1 is a zip file per delivery, 2 adds a jar file within\n" +
+			"   it, ... Default is 1.\n" +
+			"-f <files>: Files per project. Default is 5.\n" +
+			"-sz <bytes>: Median file size, sizes are log-normally distributed. Default is 4000.\n" +
+			"-max <bytes>: Maximum file size. Default is 10000000.\n" +
+			"-cl <percent>: Students with the same surname as another student, or a surname that is a\n" +
+			"   prefix of another one (Maier, Maierhofer). Default is 10.\n" +
+			"-m <percent>: Students without delivery. Default is 5.\n" +
+			"-seed <n>: Seed of the random numbers. Default is 42.\n" +
+			" ");
+	}
+
+	public static void inputError(String message) {
+		System.out.println("\nERROR in input parameters:\n   " + message);
+		help();
+		System.exit(1);
+	}
+
+	private static long number(String[] args, int index) {
+		if (index >= args.length) {
+			inputError("Value for option " + args[index-1] + " missing");
+		}
+		try {
+			long n = Long.parseLong(args[index]);
+			if (n < 0) {
+				inputError("Invalid value for option " + args[index-1]);
+			}
+			return n;
+		} catch (NumberFormatException e) {
+			inputError("Invalid value for option " + args[index-1]);
+			return 0;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		MoodleArchiveGenerator g = new MoodleArchiveGenerator();
+		int index = 0;
+		while (index < args.length) {
+			switch (args[index].toLowerCase()) {
+			case "-h":
+				help();
+				return;
+			case "-w":
+				g.workDir = args[++index];
+				break;
+			case "-n":
+				g.nameDir = args[++index];
+				break;
+			case "-c":
+				g.klasse = args[++index];
+				break;
+			case "-a":
+				g.task = args[++index];
+				break;
+			case "-s":
+				g.students = (int) number(args, ++index);
+				break;
+			case "-l":
+				try {
+					g.layout = Layout.valueOf(args[++index].toLowerCase());
+				} catch (IllegalArgumentException e) {
+					inputError("Invalid value for option -l");
+				}
+				break;
+			case "-g":
+				g.groupSize = Math.max(1, (int) number(args, ++index));
+				break;
+			case "-d":
+				g.nestingDepth = Math.max(1, (int) number(args, ++index));
+				break;
+			case "-f":
+				g.filesPerDelivery = (int) number(args, ++index);
+				break;
+			case "-sz":
+				g.medianSize = number(args, ++index);
+				break;
+			case "-max":
+				g.maxSize = number(args, ++index);
+				break;
+			case "-cl":
+				g.collisionPercent = (int) number(args, ++index);
+				break;
+			case "-m":
+				g.missingPercent = (int) number(args, ++index);
+				break;
+			case "-seed":
+				g.seed = number(args, ++index);
+				break;
+			default:
+				inputError("Invalid option " + args[index]);
+				break;
+			}
+			index++;
+		}
+		g.generate();
+	}
+}
@@ -0,0 +1,213 @@
+package moodleHelp;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Where the laid out task directory goes (option -out). The layouts build all
+ * target names as strings below cd.unzipDir, the sink maps these names to a Path
+ * in its file system. Names outside of the task directory (the help directory,
+ * temporary directories) always stay in the default file system.
+ * <ul>
+ * <li>dir: the task directory itself, as before.</li>
+ * <li>zip: one zip file &lt;unzipDir&gt;-out.zip (&lt;unzipDir&gt;.zip is the Moodle
+ * download), written by the zip file system when the sink is closed, so no directory
+ * is created at all.</li>
+ * <li>mem: a file system that lives only as long as the run, for tests and previews.</li>
+ * </ul>
+ */
+abstract class OutputSink implements Closeable {
+
+	enum Kind {dir, zip, mem}
+
+	/**
+	 * The path for a name built by the layouts.
+	 */
+	abstract Path path(String name);
+
+	/**
+	 * The task directory in the sink.
+	 */
+	abstract Path root();
+
+	/**
+	 * true: the task directory is a directory in the default file system, so e.g.
+	 * hard links and the manifest of -i are possible.
+	 */
+	abstract boolean isDirectory();
+
+	/**
+	 * Moves a file or directory within the sink.
+	 */
+	void move(Path from, Path to) throws IOException {
+		try {
+			Files.move(from, to, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(from, to);
+		}
+	}
+
+	/**
+	 * Creates the sink for the task directory unzipDir.
+	 */
+	static OutputSink create(Kind kind, String unzipDir) throws IOException {
+		switch (kind) {
+		case zip:
+			Path zipFile = Paths.get(unzipDir + "-out.zip");
+			Files.deleteIfExists(zipFile);
+			return new FileSystemSink(unzipDir, zipFile, false);
+		case mem:
+			Path tmp = Files.createTempFile("moodleUnzipper", ".zip");
+			Files.delete(tmp);
+			return new FileSystemSink(unzipDir, tmp, true);
+		default:
+			return new DirectorySink(unzipDir);
+		}
+	}
+
+	/**
+	 * The task directory on disk.
+	 */
+	static final class DirectorySink extends OutputSink {
+		private final Path root;
+
+		DirectorySink(String unzipDir) {
+			root = Paths.get(unzipDir);
+		}
+
+		@Override
+		Path path(String name) {
+			return Paths.get(name);
+		}
+
+		@Override
+		Path root() {
+			return root;
+		}
+
+		@Override
+		boolean isDirectory() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public String toString() {
+			return root.toString();
+		}
+	}
+
+	/**
+	 * The task directory as directory &lt;name of unzipDir&gt; in a zip file system. The
+	 * zip file system keeps all entries in memory and writes the zip file sequentially,
+	 * when it is closed. For mem the zip file is a temporary file, which is deleted
+	 * again after closing.
+	 */
+	static final class FileSystemSink extends OutputSink {
+		private final String unzipDir;
+		private final Path zipFile;
+		private final boolean temporary;
+		private final FileSystem fs;
+		private final Path root;
+
+		FileSystemSink(String unzipDir, Path zipFile, boolean temporary) throws IOException {
+			this.unzipDir = unzipDir;
+			this.zipFile = zipFile;
+			this.temporary = temporary;
+			Map<String, Object> env = new HashMap<String, Object>();
+			env.put("create", "true");
+			if (temporary) {
+				// the content is thrown away, do not spend time compressing it
+				env.put("noCompression", "true");
+			}
+			fs = FileSystems.newFileSystem(URI.create("jar:" + zipFile.toUri()), env);
+			root = fs.getPath("/", new File(unzipDir).getName());
+			Files.createDirectories(root);
+		}
+
+		@Override
+		Path path(String name) {
+			if (name.equals(unzipDir)) {
+				return root;
+			}
+			if (!name.startsWith(unzipDir + File.separator)) {
+				return Paths.get(name);
+			}
+			Path p = root;
+			for (String part: name.substring(unzipDir.length() + 1).split("[/\\\\]")) {
+				if (part.length() > 0) {
+					p = p.resolve(part);
+				}
+			}
+			return p;
+		}
+
+		@Override
+		Path root() {
+			return root;
+		}
+
+		@Override
+		boolean isDirectory() {
+			return false;
+		}
+
+		/**
+		 * The zip file system only moves files and empty directories, a directory
+		 * tree is moved file by file.
+		 */
+		@Override
+		void move(Path from, Path to) throws IOException {
+			if (from.getFileSystem() != fs || !Files.isDirectory(from)) {
+				super.move(from, to);
+				return;
+			}
+			List<Path> tree;
+			try (Stream<Path> s = Files.walk(from)) {
+				tree = s.collect(Collectors.toList());
+			}
+			List<Path> dirs = new ArrayList<Path>();
+			for (Path p: tree) {
+				Path target = to;
+				for (Path part: from.relativize(p)) {
+					target = target.resolve(part.toString());
+				}
+				if (Files.isDirectory(p)) {
+					Files.createDirectories(target);
+					dirs.add(p);
+				} else {
+					Files.move(p, target);
+				}
+			}
+			Collections.reverse(dirs);
+			for (Path d: dirs) {
+				Files.delete(d);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				fs.close();
+			} finally {
+				if (temporary) {
+					Files.deleteIfExists(zipFile);
+				}
+			}
+		}
+
+		@Override
+		public String toString() {
+			return temporary ? "memory" : zipFile.toString();
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package moodleHelp;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.text.Normalizer;
+import java.util.*;
+
+/**
+ * Fuzzy lookup of students in all name files (Klasse-*.txt) of the name directory,
+ * for submissions which findStudent cannot attach: umlauts written as ae/oe/ue,
+ * accents, double surnames, a typo, or a student who is in the name file of
+ * another class (e.g. moved from 3CHITa to 3CHITb).
+ * <p>
+ * Names are normalized (lower case, umlauts transliterated, accents removed, all
+ * other characters but letters and digits become blanks) and split into trigrams.
+ * An inverted index maps every trigram to the names containing it, so a query only
+ * looks at names sharing at least one trigram. The score is the Dice coefficient of
+ * the trigram sets, 1.0 for equal normalized names.
+ */
+class RosterIndex {
+
+	/**
+	 * A student from one of the name files.
+	 */
+	static class Entry {
+		final String klasse;
+		final Path file;
+		final String name;
+		final String vorName;
+		final String subDir;
+		final String moodleName;
+		final boolean ignore;
+
+		Entry(String klasse, Path file, String[] token) {
+			this.klasse = klasse;
+			this.file = file;
+			name = token[0];
+			vorName = token.length > 1 && token[1].length() > 0 ? token[1] : null;
+			ignore = token.length > 2 && token[2].length() > 0;
+			subDir = token.length > 3 && token[3].length() > 0 ? token[3] : name.toLowerCase();
+			moodleName = token.length > 4 && token[4].length() > 0 ? token[4] : name.toLowerCase();
+		}
+
+		@Override
+		public String toString() {
+			return name + (vorName == null ? "" : " " + vorName) + " (Klasse-" + klasse + ")";
+		}
+	}
+
+	/**
+	 * The best candidate for a name and its score (0..1).
+	 */
+	static class Match {
+		final Entry entry;
+		final double score;
+
+		Match(Entry entry, double score) {
+			this.entry = entry;
+			this.score = score;
+		}
+	}
+
+	/**
+	 * Reads the lines of a name file.
+	 */
+	interface LineReader {
+		List<String> read(Path file) throws IOException;
+	}
+
+	private static final String PREFIX = "Klasse-";
+
+	private final List<Entry> entries = new ArrayList<Entry>();
+	// per key: the entry and the number of its trigrams
+	private final List<Entry> keyEntries = new ArrayList<Entry>();
+	private final List<Integer> keySizes = new ArrayList<Integer>();
+	// trigram -> keys containing it
+	private final Map<String, List<Integer>> postings = new HashMap<String, List<Integer>>();
+
+	/**
+	 * Reads all name files of the directory.
+	 * @param lines reads a name file (e.g. from the roster cache of the unzipper)
+	 */
+	static RosterIndex load(Path nameDir, LineReader lines) throws IOException {
+		RosterIndex index = new RosterIndex();
+		try (DirectoryStream<Path> ds = Files.newDirectoryStream(nameDir, PREFIX + "*.txt")) {
+			for (Path file: ds) {
+				String fn = file.getFileName().toString();
+				String klasse = fn.substring(PREFIX.length(), fn.length() - ".txt".length());
+				for (String line: lines.read(file)) {
+					line = line.trim();
+					if (line.length() == 0 || line.startsWith("*")) {
+						continue;
+					}
+					String[] token = line.split(";");
+					for (int i = 0; i < token.length; i++) {
+						token[i] = token[i].trim();
+					}
+					if (token.length > 0 && token[0].length() > 0) {
+						index.add(new Entry(klasse, file, token));
+					}
+				}
+			}
+		}
+		return index;
+	}
+
+	void add(Entry e) {
+		entries.add(e);
+		Set<String> keys = new LinkedHashSet<String>();
+		keys.add(normalize(e.name + " " + (e.vorName == null ? "" : e.vorName)));
+		keys.add(normalize(e.moodleName));
+		for (String key: keys) {
+			Set<String> grams = trigrams(key);
+			int k = keyEntries.size();
+			keyEntries.add(e);
+			keySizes.add(grams.size());
+			for (String g: grams) {
+				postings.computeIfAbsent(g, x -> new ArrayList<Integer>()).add(k);
+			}
+		}
+	}
+
+	int size() {
+		return entries.size();
+	}
+
+	/**
+	 * The best candidate for name, null if no name shares a trigram with it.
+	 * @param preferred among candidates with the same score the one from this name file wins
+	 */
+	Match find(String name, Path preferred) {
+		Set<String> grams = trigrams(normalize(name));
+		if (grams.isEmpty()) {
+			return null;
+		}
+		Map<Integer, Integer> shared = new HashMap<Integer, Integer>();
+		for (String g: grams) {
+			List<Integer> keys = postings.get(g);
+			if (keys != null) {
+				for (Integer k: keys) {
+					shared.merge(k, 1, Integer::sum);
+				}
+			}
+		}
+		Match best = null;
+		for (Map.Entry<Integer, Integer> s: shared.entrySet()) {
+			double score = 2.0 * s.getValue() / (grams.size() + keySizes.get(s.getKey()));
+			Entry e = keyEntries.get(s.getKey());
+			if (best == null || score > best.score || 
+				(score == best.score && e.file.equals(preferred) && !best.entry.file.equals(preferred))) {
+				best = new Match(e, score);
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Lower case, umlauts as ae/oe/ue, ss for sharp s, no accents, only single blanks
+	 * between the words.
+	 */
+	static String normalize(String name) {
+		String s = name.toLowerCase(Locale.ROOT).replace("\u00e4", "ae").replace("\u00f6", "oe")
+			.replace("\u00fc", "ue").replace("\u00df", "ss");
+		s = Normalizer.normalize(s, Normalizer.Form.NFD).replaceAll("\\p{M}", "");
+		return s.replaceAll("[^\\p{L}\\p{N}]+", " ").trim();
+	}
+
+	/**
+	 * The trigrams of the words, each word padded with a blank on both sides.
+	 */
+	static Set<String> trigrams(String normalized) {
+		Set<String> result = new HashSet<String>();
+		for (String word: normalized.split(" ")) {
+			if (word.length() == 0) {
+				continue;
+			}
+			String w = " " + word + " ";
+			for (int i = 0; i + 3 <= w.length(); i++) {
+				result.add(w.substring(i, i + 3));
+			}
+		}
+		return result;
+	}
+}
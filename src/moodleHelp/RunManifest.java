@@ -0,0 +1,142 @@
+package moodleHelp;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * The manifest of a run, stored in the unzip directory. It records the
+ * configuration of the run and for each student the entries of the Moodle
+ * archive it came from (name, size, CRC, time), the resulting status and the
+ * names, which the run created in the unzip directory. A later run with -i
+ * uses it to process only students, whose entries have changed.
+ *
+ * The file is a simple text file, one record per line, fields are separated
+ * by tabs:
+ * <pre>
+ * config  &lt;configuration&gt;
+ * student &lt;name&gt;  &lt;fileInfo&gt;
+ * entry   &lt;name&gt;  &lt;size&gt;  &lt;crc&gt;  &lt;time&gt;
+ * output  &lt;name relative to the unzip directory&gt;
+ * </pre>
+ */
+class RunManifest {
+	static final String FILE_NAME = ".moodleUnzipper-manifest";
+	private static final String HEADER = "# moodleUnzipper manifest 1";
+
+	static class StudentRecord {
+		String fileInfo;
+		List<String> entries = new ArrayList<String>();
+		List<String> outputs = new ArrayList<String>();
+	}
+
+	String config = "";
+	// sorted by student name, so the file does not depend on the processing order
+	Map<String, StudentRecord> students = new TreeMap<String, StudentRecord>();
+
+	/**
+	 * The fingerprint of an entry of the Moodle archive.
+	 */
+	static String entry(String name, long size, long crc, long time) {
+		return escape(name) + "\t" + size + "\t" + crc + "\t" + time;
+	}
+
+	/**
+	 * @return null, if there is no manifest or it can not be read
+	 */
+	static RunManifest read(Path dir) {
+		Path f = dir.resolve(FILE_NAME);
+		if (!Files.isRegularFile(f)) {
+			return null;
+		}
+		RunManifest m = new RunManifest();
+		try (BufferedReader r = Files.newBufferedReader(f, StandardCharsets.UTF_8)) {
+			String line = r.readLine();
+			if (!HEADER.equals(line)) {
+				return null;
+			}
+			StudentRecord act = null;
+			while ((line = r.readLine()) != null) {
+				int i = line.indexOf('\t');
+				if (i < 0) {
+					continue;
+				}
+				String type = line.substring(0, i);
+				String value = line.substring(i + 1);
+				switch (type) {
+				case "config":
+					m.config = value;
+					break;
+				case "student":
+					int j = value.lastIndexOf('\t');
+					act = new StudentRecord();
+					act.fileInfo = value.substring(j + 1);
+					m.students.put(unescape(value.substring(0, j)), act);
+					break;
+				case "entry":
+					if (act != null) {
+						act.entries.add(value);
+					}
+					break;
+				case "output":
+					if (act != null) {
+						act.outputs.add(unescape(value));
+					}
+					break;
+				default:
+					break;
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			System.out.println("Manifest \"" + f + "\" could not be read: " + e);
+			return null;
+		}
+		return m;
+	}
+
+	/**
+	 * Writes the manifest to a temporary file first, so an aborted run does not
+	 * leave a half written manifest.
+	 */
+	void write(Path dir) throws IOException {
+		Path tmp = dir.resolve(FILE_NAME + ".tmp");
+		try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+			w.write(HEADER);
+			w.newLine();
+			w.write("config\t" + config);
+			w.newLine();
+			for (Map.Entry<String, StudentRecord> s: students.entrySet()) {
+				w.write("student\t" + escape(s.getKey()) + "\t" + s.getValue().fileInfo);
+				w.newLine();
+				for (String e: s.getValue().entries) {
+					w.write("entry\t" + e);
+					w.newLine();
+				}
+				for (String o: s.getValue().outputs) {
+					w.write("output\t" + escape(o));
+					w.newLine();
+				}
+			}
+		}
+		Files.move(tmp, dir.resolve(FILE_NAME), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	static String escape(String s) {
+		return s.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+	}
+
+	static String unescape(String s) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '\\' && i + 1 < s.length()) {
+				char n = s.charAt(++i);
+				sb.append(n == 't' ? '\t' : n == 'n' ? '\n' : n == 'r' ? '\r' : n);
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
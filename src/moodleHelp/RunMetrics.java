@@ -0,0 +1,174 @@
+package moodleHelp;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Timings and counters of a run. Phases may run on several threads at once
+ * (e.g. the package rewriting of parallel students), their times are summed up.
+ * At the end of the run the metrics are written as JSON report. Optionally a
+ * progress line is printed every few seconds. All methods are thread safe.
+ */
+class RunMetrics {
+
+	/**
+	 * The work of a phase, see time.
+	 */
+	interface Action<E extends Exception> {
+		void run() throws E;
+	}
+
+	private final long start = System.nanoTime();
+	// in the order, in which the phases were started first
+	private final Map<String, AtomicLong> phases = Collections.synchronizedMap(new LinkedHashMap<String, AtomicLong>());
+	private final Map<String, Long> students = new ConcurrentSkipListMap<String, Long>();
+	final AtomicLong files = new AtomicLong();
+	final AtomicLong bytes = new AtomicLong();
+	final AtomicLong archives = new AtomicLong();
+	final AtomicLong nestedArchives = new AtomicLong();
+	final AtomicLong processes = new AtomicLong();
+	private ScheduledExecutorService progress;
+
+	/**
+	 * Runs the work of a phase and adds the elapsed time to the phase, also if it fails.
+	 */
+	<E extends Exception> void time(String name, Action<E> action) throws E {
+		long start = System.nanoTime();
+		try {
+			action.run();
+		} finally {
+			add(name, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * time for a phase with a result.
+	 */
+	<T> T time(String name, Supplier<T> action) {
+		long start = System.nanoTime();
+		try {
+			return action.get();
+		} finally {
+			add(name, System.nanoTime() - start);
+		}
+	}
+
+	private void add(String name, long nanos) {
+		AtomicLong a;
+		synchronized (phases) {
+			a = phases.computeIfAbsent(name, k -> new AtomicLong());
+		}
+		a.addAndGet(nanos);
+	}
+
+	/**
+	 * Counts a file written to the task directory.
+	 */
+	void file(long size) {
+		files.incrementAndGet();
+		bytes.addAndGet(size);
+	}
+
+	void student(String name, long nanos) {
+		students.merge(name, nanos, Long::sum);
+	}
+
+	/**
+	 * Prints the number of files and bytes and the rates since the last line.
+	 */
+	void startProgress(int seconds) {
+		progress = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "progress");
+			t.setDaemon(true);
+			return t;
+		});
+		long[] last = {0, 0};
+		progress.scheduleAtFixedRate(() -> {
+			long f = files.get();
+			long b = bytes.get();
+			System.out.println(String.format(Locale.ROOT, "progress: %d files, %.1f MB, %.0f files/s, %.2f MB/s",
+				f, b / 1e6, (f - last[0]) / (double) seconds, (b - last[1]) / 1e6 / seconds));
+			last[0] = f;
+			last[1] = b;
+		}, seconds, seconds, TimeUnit.SECONDS);
+	}
+
+	void stopProgress() {
+		if (progress != null) {
+			progress.shutdownNow();
+			progress = null;
+		}
+	}
+
+	/**
+	 * Writes the report, all times are in milliseconds.
+	 * @param fileInfos number of students per FileInfo
+	 */
+	void writeReport(Path file, String klasse, String task, Map<String, Integer> fileInfos) throws IOException {
+		double total = (System.nanoTime() - start) / 1e6;
+		double seconds = total / 1000;
+		try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			w.write("{\n");
+			w.write("  \"class\": " + quote(klasse) + ",\n");
+			w.write("  \"task\": " + quote(task) + ",\n");
+			w.write("  \"students\": {");
+			String sep = "\n";
+			for (Map.Entry<String, Integer> f: fileInfos.entrySet()) {
+				w.write(sep + "    " + quote(f.getKey()) + ": " + f.getValue());
+				sep = ",\n";
+			}
+			w.write("\n  },\n");
+			w.write("  \"totalMs\": " + number(total) + ",\n");
+			w.write("  \"phasesMs\": {");
+			sep = "\n";
+			synchronized (phases) {
+				for (Map.Entry<String, AtomicLong> p: phases.entrySet()) {
+					w.write(sep + "    " + quote(p.getKey()) + ": " + number(p.getValue().get() / 1e6));
+					sep = ",\n";
+				}
+			}
+			w.write("\n  },\n");
+			w.write("  \"files\": " + files + ",\n");
+			w.write("  \"bytes\": " + bytes + ",\n");
+			w.write("  \"archives\": " + archives + ",\n");
+			w.write("  \"nestedArchives\": " + nestedArchives + ",\n");
+			w.write("  \"processes\": " + processes + ",\n");
+			w.write("  \"filesPerSecond\": " + number(seconds > 0 ? files.get() / seconds : 0) + ",\n");
+			w.write("  \"mbPerSecond\": " + number(seconds > 0 ? bytes.get() / 1e6 / seconds : 0) + ",\n");
+			w.write("  \"studentsMs\": {");
+			sep = "\n";
+			for (Map.Entry<String, Long> s: students.entrySet()) {
+				w.write(sep + "    " + quote(s.getKey()) + ": " + number(s.getValue() / 1e6));
+				sep = ",\n";
+			}
+			w.write("\n  }\n}\n");
+		}
+	}
+
+	private static String number(double value) {
+		return String.format(Locale.ROOT, "%.1f", value);
+	}
+
+	private static String quote(String s) {
+		if (s == null) {
+			return "null";
+		}
+		StringBuilder sb = new StringBuilder("\"");
+		for (char c: s.toCharArray()) {
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < ' ') {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+}
@@ -0,0 +1,151 @@
+package moodleHelp;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size limits for unpacking: per file, per student, per run and a cap for the
+ * compression ratio (against decompression bombs). The limits are checked twice:
+ * first against the sizes in the archive headers (central directory), so an
+ * entry that is too big is never decompressed, and then while the data is
+ * streamed, because headers can lie. A stream throws a LimitException as soon
+ * as one of its budgets is exhausted.
+ */
+class SizeGuard {
+
+	/**
+	 * Thrown by a guarded stream, when a budget is exhausted.
+	 */
+	@SuppressWarnings("serial")
+	static class LimitException extends IOException {
+		LimitException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * A number of bytes, that may be read. Can be shared between threads and streams.
+	 */
+	static class Budget {
+		private final String name;
+		private final long limit;
+		private final AtomicLong used = new AtomicLong();
+
+		/**
+		 * @param limit -1 for no limit
+		 */
+		Budget(String name, long limit) {
+			this.name = name;
+			this.limit = limit;
+		}
+
+		void add(long n) throws LimitException {
+			long u = used.addAndGet(n);
+			if (limit >= 0 && u > limit) {
+				throw new LimitException(name + " limit of " + limit + " bytes exceeded");
+			}
+		}
+
+		/**
+		 * Whether n more bytes are within the limit, nothing is added.
+		 */
+		boolean fits(long n) {
+			return limit < 0 || used.get() + n <= limit;
+		}
+	}
+
+	// small files may be compressed better than maxRatio
+	private static final long RATIO_SLACK = 1_000_000;
+
+	final long maxFile;
+	final long maxStudent;
+	final int maxRatio;
+	final Budget run;
+
+	/**
+	 * All limits -1 for no limit.
+	 */
+	SizeGuard(long maxFile, long maxStudent, long maxRun, int maxRatio) {
+		this.maxFile = maxFile;
+		this.maxStudent = maxStudent;
+		this.maxRatio = maxRatio;
+		run = new Budget("run", maxRun);
+	}
+
+	Budget file() {
+		return new Budget("file", maxFile);
+	}
+
+	Budget student() {
+		return new Budget("student", maxStudent);
+	}
+
+	/**
+	 * The budget for the data unpacked from compressed bytes.
+	 * @param compressed -1 if unknown, then there is no limit
+	 */
+	Budget ratio(long compressed) {
+		return new Budget("compression ratio", maxRatio < 0 || compressed < 0 ? -1 :
+			compressed * maxRatio + RATIO_SLACK);
+	}
+
+	/**
+	 * Checks the sizes from the header of an archive entry.
+	 * @param size -1 if unknown
+	 * @param compressed -1 if unknown
+	 * @return null, if the entry may be unpacked, otherwise the reason
+	 */
+	String check(long size, long compressed) {
+		if (maxFile >= 0 && size > maxFile) {
+			return "file size " + size + " exceeds the limit of " + maxFile + " bytes";
+		}
+		if (maxRatio >= 0 && size >= 0 && compressed >= 0 && size > compressed * maxRatio + RATIO_SLACK) {
+			return "compression ratio " + (compressed == 0 ? "-" : String.valueOf(size / compressed)) +
+				" exceeds the limit of " + maxRatio;
+		}
+		return null;
+	}
+
+	/**
+	 * Counts every byte read from in against all budgets.
+	 * @param budgets null entries are ignored
+	 */
+	static InputStream guard(InputStream in, Budget... budgets) {
+		return new FilterInputStream(in) {
+			private void count(long n) throws LimitException {
+				for (Budget b: budgets) {
+					if (b != null) {
+						b.add(n);
+					}
+				}
+			}
+
+			@Override
+			public int read() throws IOException {
+				int c = super.read();
+				if (c >= 0) {
+					count(1);
+				}
+				return c;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int n = super.read(b, off, len);
+				if (n > 0) {
+					count(n);
+				}
+				return n;
+			}
+
+			@Override
+			public long skip(long n) throws IOException {
+				long s = super.skip(n);
+				count(s);
+				return s;
+			}
+		};
+	}
+}
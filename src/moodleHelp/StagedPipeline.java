@@ -0,0 +1,202 @@
+package moodleHelp;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * The stages for the entries of the Moodle file (option -pipe): the tasks of the
+ * students route the entries (they hand out the target names), a pool of readers
+ * decompresses them into memory, a pool of rewriters changes the Java sources in
+ * memory, and writer threads store them. Each stage has its own threads, so the CPU
+ * bound decompression and rewriting overlap with the disk bound writing.
+ * <p>
+ * A group (the entries of one student) is bound to one writer and is written in
+ * the order of submission, so a name is used in the order it was handed out. Every
+ * writer takes its items from a bounded queue: when the writer falls behind, submit
+ * blocks (backpressure). This also limits the data in memory to writers * queueSize
+ * items, as every item waits in a queue while it is read and rewritten.
+ */
+class StagedPipeline implements AutoCloseable {
+
+	/**
+	 * The work of one stage for an item.
+	 */
+	interface Step {
+		void run() throws IOException;
+	}
+
+	// ends a writer
+	private static final Runnable STOP = () -> {};
+
+	private final ExecutorService readers;
+	private final ExecutorService rewriters;
+	private final List<BlockingQueue<Runnable>> queues = new ArrayList<BlockingQueue<Runnable>>();
+	private final List<Thread> writers = new ArrayList<Thread>();
+	private final AtomicInteger nextWriter = new AtomicInteger();
+
+	/**
+	 * @param readers threads for decompressing, 0: a virtual thread per item
+	 * @param rewriters threads for rewriting, 0: a virtual thread per item
+	 * @param writers writer threads, each with its own queue
+	 * @param queueSize capacity of the queue of a writer
+	 */
+	StagedPipeline(int readers, int rewriters, int writers, int queueSize) {
+		this.readers = Unzipper.newExecutor(readers);
+		this.rewriters = Unzipper.newExecutor(rewriters);
+		for (int i = 0; i < writers; i++) {
+			BlockingQueue<Runnable> queue = new ArrayBlockingQueue<Runnable>(queueSize);
+			Thread w = new Thread(() -> write(queue), "pipeline-writer-" + i);
+			w.setDaemon(true);
+			w.start();
+			queues.add(queue);
+			this.writers.add(w);
+		}
+	}
+
+	private static void write(BlockingQueue<Runnable> queue) {
+		try {
+			Runnable item;
+			while ((item = queue.take()) != STOP) {
+				item.run();
+			}
+		} catch (InterruptedException e) {
+			// close
+		}
+	}
+
+	/**
+	 * A new group, the writers are assigned in turn.
+	 */
+	Group group() {
+		return new Group(queues.get(Math.floorMod(nextWriter.getAndIncrement(), queues.size())));
+	}
+
+	/**
+	 * Waits, until the writers have stored all items submitted so far by all groups.
+	 */
+	void await() throws InterruptedException {
+		CountDownLatch written = new CountDownLatch(queues.size());
+		for (BlockingQueue<Runnable> queue: queues) {
+			queue.put(written::countDown);
+		}
+		written.await();
+	}
+
+	/**
+	 * Items, which are written one after the other by the same writer. If a step throws
+	 * a RuntimeException, the group is aborted: the remaining items are dropped, and
+	 * submit and await rethrow the exception in the routing thread.
+	 */
+	class Group {
+		private final BlockingQueue<Runnable> queue;
+		// set by the writer
+		private volatile RuntimeException failure;
+
+		private Group(BlockingQueue<Runnable> queue) {
+			this.queue = queue;
+		}
+
+		/**
+		 * Passes an item through the stages, blocks while the queue of the writer is full.
+		 * @param rewrite null: the item is handed from the reader to the writer directly
+		 * @param onError called by the writer, if a step failed with an IOException
+		 */
+		void submit(Step read, Step rewrite, Step write, Consumer<IOException> onError)
+			throws InterruptedException {
+			check();
+			CompletableFuture<Void> loaded = CompletableFuture.runAsync(unchecked(read), readers);
+			if (rewrite != null) {
+				loaded = loaded.thenRunAsync(unchecked(rewrite), rewriters);
+			}
+			CompletableFuture<Void> item = loaded;
+			queue.put(() -> {
+				if (failure != null) {
+					return;
+				}
+				try {
+					join(item);
+					write.run();
+				} catch (IOException e) {
+					try {
+						onError.accept(e);
+					} catch (RuntimeException re) {
+						failure = re;
+					}
+				} catch (RuntimeException e) {
+					failure = e;
+				} catch (Error e) {
+					failure = new IllegalStateException(e);
+				}
+			});
+		}
+
+		/**
+		 * Waits, until the writer has stored all items submitted so far.
+		 */
+		void await() throws InterruptedException {
+			CountDownLatch written = new CountDownLatch(1);
+			queue.put(written::countDown);
+			written.await();
+			check();
+		}
+
+		private void check() {
+			if (failure != null) {
+				throw failure;
+			}
+		}
+	}
+
+	private static Runnable unchecked(Step step) {
+		return () -> {
+			try {
+				step.run();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		};
+	}
+
+	/**
+	 * Waits for the read and rewrite steps of an item, their exceptions are rethrown.
+	 */
+	private static void join(CompletableFuture<Void> item) throws IOException {
+		try {
+			item.join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) cause).getCause();
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Lets the writers finish their queues and stops all threads.
+	 */
+	@Override
+	public void close() {
+		try {
+			for (BlockingQueue<Runnable> queue: queues) {
+				queue.put(STOP);
+			}
+			for (Thread w: writers) {
+				w.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			readers.shutdownNow();
+			rewriters.shutdownNow();
+		}
+	}
+}
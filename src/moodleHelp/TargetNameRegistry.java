@@ -0,0 +1,201 @@
+package moodleHelp;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Assigns the target names for copySpecial in memory. All names that can be
+ * derived from one target name (name.ext, name1.ext, name2.ext, ...) form a
+ * family, which remembers how many names it has handed out. Only the first
+ * request for a family looks at the file system, every further name costs O(1).
+ * The registry is thread safe, it must only be used for one run, as it
+ * assumes that nobody else creates files in the target directories.
+ */
+class TargetNameRegistry {
+
+	/**
+	 * The name for a new file. If renameFrom is not null, the file of the family
+	 * that was created first must be renamed to renameTo before.
+	 */
+	static class Assignment {
+		final String target;
+		final String renameFrom;
+		final String renameTo;
+
+		Assignment(String target, String renameFrom, String renameTo) {
+			this.target = target;
+			this.renameFrom = renameFrom;
+			this.renameTo = renameTo;
+		}
+	}
+
+	private static class Family {
+		final String dir;
+		final String baseName;
+		final String extension;
+		// highest counter handed out, 0: not yet looked at the file system
+		int count = 0;
+		// first counter handed out, names from outside of the run are below
+		int first = 0;
+		// the first name from outside of the run was renamed to counter 1
+		boolean renamed = false;
+
+		Family(String dir, String baseName, String extension) {
+			this.dir = dir;
+			this.baseName = baseName;
+			this.extension = extension;
+		}
+
+		String name(int i) {
+			return new File(dir, baseName + (i == 0 ? "" : String.valueOf(i)) + extension).getPath();
+		}
+	}
+
+	// Windows file names are case insensitive
+	private static final boolean IGNORE_CASE = File.separatorChar == '\\';
+
+	private final ConcurrentHashMap<String, Family> families = new ConcurrentHashMap<String, Family>();
+	private final Predicate<String> exists;
+
+	/**
+	 * @param exists used to probe names of families, that have not been seen yet
+	 */
+	TargetNameRegistry(Predicate<String> exists) {
+		this.exists = exists;
+	}
+
+	TargetNameRegistry() {
+		this(name -> new File(name).exists());
+	}
+
+	/**
+	 * Assigns the name for a new file or directory: toName, if it is still free,
+	 * otherwise toName with a counter, see Unzipper.copySpecial.
+	 */
+	Assignment assign(String toName) {
+		Family f = family(toName);
+		synchronized (f) {
+			if (f.count == 0) {
+				return first(f);
+			}
+			if (f.count == 1) {
+				f.count = 2;
+				return new Assignment(f.name(2), f.name(0), f.name(1));
+			}
+			f.count++;
+			return new Assignment(f.name(f.count), null, null);
+		}
+	}
+
+	/**
+	 * Takes name for a file, which is renamed outside of assign (a Java source is named
+	 * after its class), if no name of its family has been handed out and neither name
+	 * nor name with counter 1 exists.
+	 * @return false, if the name is not available
+	 */
+	boolean claim(String name) {
+		Family f = family(name);
+		synchronized (f) {
+			if (f.count != 0 || exists.test(f.name(0)) || exists.test(f.name(1))) {
+				return false;
+			}
+			f.count = 1;
+			return true;
+		}
+	}
+
+	/**
+	 * Gives back the last name handed out by assign for toName, after the file has been
+	 * deleted again. Several names of a family are given back in the reverse order.
+	 * If handing out the name had renamed the first file of the family to counter 1,
+	 * renameFrom and renameTo say how to rename it back.
+	 * @return the name given back as target, null, if no name was handed out
+	 */
+	Assignment release(String toName) {
+		Family f = family(toName);
+		synchronized (f) {
+			if (f.count == 0) {
+				return null;
+			}
+			if ((f.first == 0 && f.count == 1) || f.count == f.first) {
+				// the first name of the run, the next assign looks at the file system again
+				String name = f.name(f.count == 1 ? 0 : f.count);
+				boolean renamed = f.renamed;
+				f.count = 0;
+				f.first = 0;
+				f.renamed = false;
+				return renamed ? new Assignment(name, f.name(1), f.name(0)) : new Assignment(name, null, null);
+			}
+			String name = f.name(f.count);
+			f.count--;
+			if (f.count == 1) {
+				return new Assignment(name, f.name(1), f.name(0));
+			}
+			return new Assignment(name, null, null);
+		}
+	}
+
+	private Family family(String toName) {
+		File tf = Paths.get(toName).toAbsolutePath().normalize().toFile();
+		String tName = tf.getName();
+		int i = tName.lastIndexOf('.');
+		String tBaseName = i == -1 ? tName : tName.substring(0, i);
+		String tExtension = i == -1 ? "" : tName.substring(i);
+		String key = tf.getParent() + File.separator + tBaseName + "|" + tExtension;
+		if (IGNORE_CASE) {
+			key = key.toLowerCase();
+		}
+		return families.computeIfAbsent(key, k -> new Family(tf.getParent(), tBaseName, tExtension));
+	}
+
+	/**
+	 * The first name of a family, files from outside of this run are taken into account.
+	 */
+	private Assignment first(Family f) {
+		if (!exists.test(f.name(0))) {
+			if (!exists.test(f.name(1))) {
+				f.count = 1;
+				return new Assignment(f.name(0), null, null);
+			}
+			int i = 2;
+			while (exists.test(f.name(i))) {
+				i++;
+			}
+			f.count = i;
+			f.first = i;
+			return new Assignment(f.name(i), null, null);
+		}
+		f.count = 2;
+		f.first = 2;
+		f.renamed = true;
+		return new Assignment(f.name(2), f.name(0), f.name(1));
+	}
+
+	/**
+	 * The names handed out in this run for files in dir, grouped by base name.
+	 * @return base name -> file names (without directory)
+	 */
+	Map<String, List<String>> assignedNames(String dir) {
+		String d = Paths.get(dir).toAbsolutePath().normalize().toString();
+		Map<String, List<String>> result = new HashMap<String, List<String>>();
+		for (Family f: families.values()) {
+			if (!f.dir.equals(d)) {
+				continue;
+			}
+			synchronized (f) {
+				List<String> names = result.computeIfAbsent(f.baseName, k -> new ArrayList<String>());
+				if (f.first == 0 && f.count == 1) {
+					names.add(new File(f.name(0)).getName());
+				} else if (f.count > 0) {
+					for (int i = Math.max(f.first, 1); i <= f.count; i++) {
+						names.add(new File(f.name(i)).getName());
+					}
+				}
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,101 @@
+package moodleHelp;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributeView;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Deletes directory trees with Files.walkFileTree instead of "rmdir /s /q".
+ * A tree can also be renamed aside and deleted by a background thread, so a
+ * new run does not have to wait for the old output to disappear.
+ */
+class TreeDeleter {
+
+	/**
+	 * Deletes a file or a directory with everything below it. Read-only files are
+	 * deleted as well (like rmdir /s /q). A missing path is no error.
+	 * @return the errors, empty if everything was deleted
+	 */
+	static List<IOException> deleteTree(Path root) {
+		final List<IOException> errors = new ArrayList<IOException>();
+		if (!Files.exists(root, LinkOption.NOFOLLOW_LINKS)) {
+			return errors;
+		}
+		try {
+			Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+					delete(file, errors);
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException e) {
+					errors.add(e);
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+					if (e != null) {
+						errors.add(e);
+					}
+					delete(dir, errors);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			errors.add(e);
+		}
+		return errors;
+	}
+
+	private static void delete(Path p, List<IOException> errors) {
+		try {
+			Files.delete(p);
+		} catch (AccessDeniedException e) {
+			// read-only file on Windows
+			DosFileAttributeView dos = Files.getFileAttributeView(p, DosFileAttributeView.class,
+				LinkOption.NOFOLLOW_LINKS);
+			try {
+				if (dos == null) {
+					throw e;
+				}
+				dos.setReadOnly(false);
+				Files.delete(p);
+			} catch (IOException e1) {
+				errors.add(e1);
+			}
+		} catch (IOException e) {
+			errors.add(e);
+		}
+	}
+
+	/**
+	 * Renames the tree aside (in the same directory, so the rename is instant) and
+	 * deletes it on a background thread. The thread is no daemon, so the JVM waits
+	 * for it before exiting. If the rename fails, the tree is deleted immediately.
+	 * @return the errors of the rename or of an immediate delete
+	 */
+	static List<IOException> deleteInBackground(Path root) {
+		if (!Files.exists(root, LinkOption.NOFOLLOW_LINKS)) {
+			return new ArrayList<IOException>();
+		}
+		final Path aside = root.resolveSibling(root.getFileName() + ".deleted-" + System.currentTimeMillis());
+		try {
+			Files.move(root, aside, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			return deleteTree(root);
+		}
+		Thread t = new Thread(() -> {
+			for (IOException e: deleteTree(aside)) {
+				System.out.println("Background delete of \"" + aside + "\" failed: " + e);
+			}
+		}, "delete " + aside.getFileName());
+		t.start();
+		return new ArrayList<IOException>();
+	}
+}
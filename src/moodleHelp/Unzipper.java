@@ -1,8 +1,25 @@
 package moodleHelp;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 import java.util.regex.*;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import jdk.jfr.Recording;
 
 
 /**
@@ -16,11 +33,11 @@ public class Unzipper {
 	/**
 	 * Datentyp zur Info, warum gewisse Daten gewisser Schler nicht vorhanden sind.
 	 */
-	private static enum FileInfo {
+	static enum FileInfo {
 		fileNotFound, wrongSufix, tooBig, fileOkay
 	}
 
-	private static enum FileStructureType {
+	static enum FileStructureType {
 		/* kein Directory, Dateien heien wie der zugehrige Name des Schlers + korrekte Endung
 		 * Siehe auch Methode moveDirTreeDirect.
 		 */
@@ -45,14 +62,17 @@ public class Unzipper {
 	/**
 	 *	Die Daten eines Schlers. 
 	 */
-	private static class StudentName {
+	static class StudentName {
 		String name;
 		String vorName;
 		boolean ignore = false;
 		// directory name for this name
 		String subDir;
 		String moodleName;
-		FileInfo fileInfo = FileInfo.fileNotFound;
+		// volatile: wird bei -j vom Task des Schlers gesetzt
+		volatile FileInfo fileInfo = FileInfo.fileNotFound;
+		// Bytes, die fr diesen Schler schon entpackt wurden, siehe SizeGuard
+		SizeGuard.Budget sizeBudget;
 		
 		StudentName(String name) {
 			this.name = name;
@@ -66,6 +86,49 @@ public class Unzipper {
 		}
 	}
 	
+	/**
+	 * Ein Prfixbaum (Trie) ber die moodleNames der Schler. Liefert zu einem Namen aus 
+	 * Moodle den Schler mit dem lngsten moodleName, der ein Prfix des Namens ist, mit 
+	 * Aufwand proportional zur Lnge des Namens.
+	 */
+	static class StudentIndex {
+		private static class Node {
+			Map<Character, Node> children = new HashMap<Character, Node>();
+			StudentName student;
+		}
+		private Node root = new Node();
+
+		/**
+		 * @param students bei gleichem moodleName gewinnt der erste Schler
+		 */
+		StudentIndex(Collection<StudentName> students) {
+			for (StudentName t: students) {
+				Node n = root;
+				for (int i=0;i<t.moodleName.length();i++) {
+					n = n.children.computeIfAbsent(t.moodleName.charAt(i), c -> new Node());
+				}
+				if (n.student == null) {
+					n.student = t;
+				}
+			}
+		}
+
+		StudentName findLongestPrefix(String name) {
+			Node n = root;
+			StudentName result = n.student;
+			for (int i=0;i<name.length();i++) {
+				n = n.children.get(name.charAt(i));
+				if (n == null) {
+					break;
+				}
+				if (n.student != null) {
+					result = n.student;
+				}
+			}
+			return result;
+		}
+	}
+
 	/**
 	 *  Allgemeine Konfigurationsdaten. Zuerst werden die Werte durch den Konstruktor 
 	 *  gesetzt, dann gibt es einige Update-Methoden, welche diese klassenspezifisch ndern
@@ -74,12 +137,54 @@ public class Unzipper {
 	 *  
 	 *  Enthlt auch die Liste der Schler!
 	 */
-	private static class ConfigurationData {
+	static class ConfigurationData {
 		boolean deleteHelp = true;
+		// true: Moodle-File ohne Hilfsdirectory direkt in das unzipDir entpacken
+		boolean streaming = false;
 		boolean deleteUnzipDir = true;
 		int maxFileSize=50_000_000;
+		// Grenzen fr alle Dateien eines Schlers und eines Laufes, -1: keine Grenze
+		long maxStudentSize = -1;
+		long maxRunSize = -1;
+		// Maximales Verhltnis entpackt/gepackt eines Eintrags (Zip-Bomben), -1: keine Grenze
+		int maxRatio = 200;
+		// Abgaben ohne passenden Schler ab dieser hnlichkeit (0..1) zuordnen, siehe attachFuzzy
+		double fuzzyThreshold = 0.8;
 		FileStructureType fst = FileStructureType.noDir;
 		String dir7zip = "C:\\Programme\\7-Zip";
+		// true: alle Archive mit 7zip entpacken, auch zip, jar, war und ear
+		boolean use7zipOnly = false;
+		// Beim Kopieren nderungsdatum und Attribute bernehmen (wie copy/xcopy)
+		boolean preserveAttributes = true;
+		// Alte Directories beiseite umbenennen und im Hintergrund lschen
+		boolean deleteInBackground = false;
+		// Inkrementell: nur Schler bearbeiten, deren Abgaben sich seit dem letzten Lauf gendert haben
+		boolean incremental = false;
+		// Manifest des letzten Laufes, nur bei incremental und gleicher Konfiguration
+		RunManifest previousManifest = null;
+		// Gleiche Dateien (z.B. Vorlagen) nur einmal speichern, die anderen sind Hard Links
+		boolean dedup = false;
+		// Ziel der Ablage: das unzipDir, ein zip-File <unzipDir>-out.zip oder nur im Speicher
+		OutputSink.Kind output = OutputSink.Kind.dir;
+		// Fortschritt (Dateien/s, MB/s) whrend des Laufes ausgeben
+		boolean progress = false;
+		// Hash-Index der Dateien dieses Laufes, nur bei dedup
+		DedupIndex dedupIndex = null;
+		// Batch und Daemon: von allen Auftrgen gemeinsam genutzte Namensfiles, Filter und Threads, sonst null
+		Map<String, List<String>> rosters = null;
+		Map<String, FileMatcher> matchers = null;
+		ExecutorService executor = null;
+		// Anzahl der Threads fr die Schler, 1: sequentiell, 0: virtuelle Threads
+		int threads = 1;
+		// Option -pipe: Threads zum Entpacken, Umschreiben und Schreiben und die Lnge der
+		// Queues der StagedPipeline, null: ohne Pipeline
+		int[] pipeline = null;
+		// Ohne streaming: der Plan der Ablage wird in diese Datei geschrieben (-plan) bzw. aus
+		// dieser Datei gelesen und ohne Entpacken des Moodle-Files ausgefhrt (-replay)
+		String planFile = null;
+		String replayFile = null;
+		// Bis zu dieser Tiefe werden Archive in Archiven entpackt, 1: nur die abgegebenen Archive
+		int maxNestingDepth = 1;
 		// Enthlt Dateien mit den Namen der Schler
 		String nameDir = "C:\\Weiser\\workspace1\\MoodleUnzipper\\data";
 		String nameFile = null;
@@ -93,28 +198,49 @@ public class Unzipper {
 		String zipFileFull;
 		String helpDir = null;
 		TreeSet<StudentName> studentList;
+		// Index ber moodleName fr findStudent, wird nach readNameFile aufgebaut
+		StudentIndex studentIndex;
 		String[] suffixList = null;
+		// Ausgeschlossene Extensions und Dateinamen (mit * und ?), siehe FileMatcher
+		String[] excludeList = FileMatcher.STANDARD_EXCLUSIONS;
+		String[] excludeGlobs = null;
+		// Encoding der Java Files fr updatePackage, null: erkennen (BOM, UTF-8, windows-1252)
+		Charset sourceEncoding = null;
+		// Grere Dateien innerhalb der Abgaben werden nicht kopiert, -1: keine Grenze
+		long maxEntrySize = -1;
 		String klasse = null;
 		
 		/**
 		 * Ergnzen der fehlenden Datenmit defaultwerten.
 		 */
-		private void update() {
+		void update() {
 			zipFile = unzipSubdir +  ".zip";
 			if (unzipDir == null) {
-				unzipDir = unzipDirBase + "\\" + unzipSubdir;
+				unzipDir = unzipDirBase + File.separator + unzipSubdir;
 			}
 			if (zipDir == null) {
 				zipDir = unzipDirBase;
 			}
-			zipFileFull = zipDir + "\\" + zipFile;
-			nameFileFull = nameDir + "\\" + nameFile;
+			zipFileFull = zipDir + File.separator + zipFile;
+			nameFileFull = nameDir + File.separator + nameFile;
 			if (helpDir == null) {
-				helpDir = zipDir + "\\help\\" + unzipSubdir;
+				helpDir = zipDir + File.separator + "help" + File.separator + unzipSubdir;
 			}
 			studentList = new TreeSet<StudentName>(comp);
+			studentIndex = null;
 		}
 		
+		/**
+		 * Die Konfiguration, welche das Ergebnis eines Laufes bestimmt. Ein inkrementeller Lauf
+		 * ist nur bei gleicher Konfiguration mglich.
+		 */
+		String manifestConfig() {
+			return fst + ";" + (suffixList==null?"":String.join(" ", suffixList)) + ";" +
+				String.join(" ", excludeList) + ";" + (excludeGlobs==null?"":String.join(" ", excludeGlobs)) +
+				";" + maxEntrySize + ";" + maxFileSize + ";" + maxStudentSize + ";" + maxRunSize + ";" +
+				maxRatio + ";" + maxNestingDepth + ";" + use7zipOnly + ";" + sourceEncoding + ";" + fuzzyThreshold;
+		}
+
 		/**
 		 * Ausgabe der Konfigurationsdaten (ohne Schler).
 		 */
@@ -122,11 +248,17 @@ public class Unzipper {
 			System.out.println("\nConfiguration Data:");
 			System.out.println("   nameFileFull: " + nameFileFull);
 			System.out.println("   zipFileFull:  " + zipFileFull);
-			System.out.println("   helpDir:      " + helpDir);
+			System.out.println("   helpDir:      " + (streaming?"none (streaming)":helpDir));
 			System.out.println("   unzipDirBase: " + unzipDirBase);
 			System.out.println("   unzipSubdir:  " + unzipSubdir);
 			System.out.println("   unzipDir:     " + unzipDir);
 			System.out.println("   klasse:       " + klasse);
+			System.out.println("   nesting:      " + maxNestingDepth);
+			System.out.println("   threads:      " + (threads==0?"virtual":String.valueOf(threads)));
+			if (pipeline != null) {
+				System.out.println("   pipeline:     " + pipeline[0] + " read, " + pipeline[1] + " rewrite, " + 
+					pipeline[2] + " write, queue " + pipeline[3]);
+			}
 			System.out.print("   suffixList:   " + (suffixList==null?"null":""));
 			if (suffixList != null) {
 				for (int i=0;i<suffixList.length;i++) {
@@ -134,6 +266,8 @@ public class Unzipper {
 				}
 			}
 			System.out.println();
+			System.out.println("   excludeList:  " + String.join(", ", excludeList) +
+				(excludeGlobs==null?"":", " + String.join(", ", excludeGlobs)));
 		}
 		
 		/**
@@ -157,10 +291,22 @@ public class Unzipper {
 		 * Schreibt Liste der Schler auf stdout.
 		 */
 		void writeNames() {
-			int noOkay = 0, noNotFound = 0, noWrongSuffix = 0, noTooBig = 0;
 			System.out.println("\nList of include names:");
 			for (StudentName sn:studentList) {
 				System.out.println(sn.getAllString());
+			}
+			System.out.println(counts());
+			if (dedupIndex != null) {
+				System.out.println("dedup: " + dedupIndex);
+			}
+		}
+
+		/**
+		 * Anzahl der Schler je FileInfo.
+		 */
+		String counts() {
+			int noOkay = 0, noNotFound = 0, noWrongSuffix = 0, noTooBig = 0;
+			for (StudentName sn:studentList) {
 				switch (sn.fileInfo) {
 				case fileNotFound: 
 					noNotFound++;
@@ -177,9 +323,9 @@ public class Unzipper {
 					
 				}
 			}
-			System.out.println("okay:" + noOkay + ",   wrong suffix:" +  noWrongSuffix + 
+			return "okay:" + noOkay + ",   wrong suffix:" +  noWrongSuffix + 
 				",   too big:" + noTooBig + ",   not found:" + noNotFound + ",   total:" + 
-				(noOkay+noWrongSuffix+noTooBig+noNotFound));
+				(noOkay+noWrongSuffix+noTooBig+noNotFound);
 		}
 		
 		/**
@@ -215,8 +361,56 @@ public class Unzipper {
 			super(text, e);
 		}
 	}
+
+	/**
+	 * Eine Grenze von SizeGuard wurde beim Entpacken berschritten, die Abgabe des
+	 * Schlers wird abgebrochen.
+	 */
+	@SuppressWarnings("serial")
+	static class TooBigException extends UnzipException {
+		TooBigException(String text, Exception e) {
+			super(text, e);
+		}
+	}
 	
-	private ConfigurationData cd = new ConfigurationData();
+	// package-private, wie die folgenden Methoden, fr die Benchmarks in benchmark/
+	ConfigurationData cd = new ConfigurationData();
+	private ZipExtractor zipExtractor = new ZipExtractor();
+	// Grenzen fr die Gre, wird in init angelegt
+	private SizeGuard sizeGuard;
+	// Ziel fr alle Dateien im unzipDir, wird in init angelegt
+	private OutputSink sink;
+	// Alle Namensfiles fr attachFuzzy, wird erst bei Bedarf gelesen
+	private RosterIndex rosterIndex = null;
+	// attachFuzzy: Abgabe -> Schler (auch null) bzw. Eintrag im RosterIndex -> Schler
+	private Map<String, StudentName> fuzzyResults = new HashMap<String, StudentName>();
+	private Map<RosterIndex.Entry, StudentName> fuzzyStudents = new HashMap<RosterIndex.Entry, StudentName>();
+	// Eintrge des Moodle-Files, welche unzipMoodleFile wegen einer Grenze ausgelassen hat
+	private List<String> moodleTooBig = Collections.emptyList();
+	private FileCopier fileCopier;
+	private JavaSourceRewriter sourceRewriter;
+	// Vergabe der Namen fr copySpecial
+	private TargetNameRegistry targetNames;
+	// Summe der intern entpackten Eintrge und Bytes
+	private AtomicInteger extractedEntries = new AtomicInteger();
+	private AtomicLong extractedBytes = new AtomicLong();
+	// Zeiten und Zhler fr den Bericht, siehe writeReport
+	private RunMetrics metrics = new RunMetrics();
+	// siehe lockFor
+	private ConcurrentHashMap<String, Object> targetLocks = new ConcurrentHashMap<String, Object>();
+	// Parameter -p und -b, siehe mainNew
+	private boolean printOnly = false;
+	// Option -inv: nur das Inventar ausgeben
+	private boolean inventoryOnly = false;
+	private String jobFile = null;
+	// Parameter -jfr: Datei fr die Flight Recorder Aufzeichnung
+	private String jfrFile = null;
+	// Parameter -watch, siehe runWatch
+	private boolean watch = false;
+	// Watch: so lange darf sich ein Download nicht mehr ndern, bevor er entpackt wird
+	private static final long WATCH_QUIET_MILLIS = 3000;
+	// true im Daemon (-daemon), dann beendet inputError nicht die JVM
+	private static volatile boolean resident = false;
 
 	
 	/**
@@ -226,11 +420,8 @@ public class Unzipper {
 	 * @param fileName
 	 */
 	void readNameFile(ConfigurationData cd) {
-		BufferedReader f = null;
 		try {
-			f = new BufferedReader(new InputStreamReader(new FileInputStream(cd.nameFileFull),"UTF-8"));
-			String line = f.readLine();
-			while (line != null) {
+			for (String line: rosterLines(cd)) {
 				body1: {
 					if (line.startsWith("*")) {
 						// Kommentarzeile
@@ -264,30 +455,96 @@ public class Unzipper {
 					cd.studentList.add(t);
 					System.out.println("added: " + t.name);
 				} // end of body1
-				line = f.readLine();
 			}
-			f.close();
+			cd.studentIndex = new StudentIndex(cd.studentList);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
 
+	/**
+	 * Die Zeilen des Namensfiles, im Batch- und Daemon-Betrieb aus dem gemeinsamen Cache (cd.rosters).
+	 */
+	private static List<String> rosterLines(ConfigurationData cd) throws IOException {
+		return rosterLines(cd, Paths.get(cd.nameFileFull));
+	}
+
+	private static List<String> rosterLines(ConfigurationData cd, Path file) throws IOException {
+		if (cd.rosters == null) {
+			return Files.readAllLines(file, StandardCharsets.UTF_8);
+		}
+		// mit dem nderungsdatum, damit der Daemon ein gendertes Namensfile neu liest
+		String key = file + "|" + Files.getLastModifiedTime(file);
+		List<String> lines = cd.rosters.get(key);
+		if (lines == null) {
+			lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+			cd.rosters.putIfAbsent(key, lines);
+		}
+		return lines;
+	}
+
+	/**
+	 * Entzippt ein Archiv-File. zip, jar, war und ear werden direkt in Java entpackt,
+	 * alle anderen Archive (und zip-Files, die Java nicht lesen kann) mit 7zip.
+	 * @param fileName
+	 * @param destDir
+	 * @return die Eintrge, welche wegen einer Grenze von SizeGuard nicht entpackt wurden
+	 */
+	private List<String> unzipFile(String fileName, String destDir) {
+		return unzipFile(fileName, destDir, true);
+	}
+
+	/**
+	 * @param chargeRun siehe ZipExtractor.extract, false fr das Moodle-File
+	 */
+	private List<String> unzipFile(String fileName, String destDir, boolean chargeRun) {
+		if (!cd.use7zipOnly && ZipExtractor.canExtract(fileName)) {
+			JfrEvents.ExtractEvent ev = JfrEvents.extract();
+			try {
+				ZipExtractor.Result r = zipExtractor.extract(Paths.get(fileName), Paths.get(destDir), chargeRun);
+				System.out.println("Unzipped \"" + fileName + "\": " + r);
+				extractedEntries.addAndGet(r.entries);
+				extractedBytes.addAndGet(r.bytes);
+				if (ev != null) {
+					ev.done(fileName, destDir, "internal", r.entries, r.bytes, "okay");
+				}
+				return r.tooBig;
+			} catch (IOException e) {
+				System.out.println("Internal unzip of \"" + fileName + "\" failed (" + e.getMessage() +
+					"), using 7-zip.");
+				if (ev != null) {
+					ev.done(fileName, destDir, "internal", 0, 0, e.toString());
+				}
+			}
+		}
+		JfrEvents.ExtractEvent ev = JfrEvents.extract();
+		unzipFile7z(fileName, destDir);
+		if (ev != null) {
+			ev.done(fileName, destDir, "7zip", -1, -1, "done");
+		}
+		return Collections.emptyList();
+	}
+
 	/**
 	 * Entzippt ein Archiv-File mit 7zip.
 	 * @param fileName
 	 * @param destDir
 	 */
-	private void unzipFile(String fileName, String destDir) {
+	private void unzipFile7z(String fileName, String destDir) {
+		metrics.processes.incrementAndGet();
 		try {
-			String params = "/C " + cd.dir7zip + "\\7z.exe" + " x -o\"" + destDir + "\" \"" + fileName + "\"";
-			String program = "cmd.exe";
-			//params = " x -o" + destDir + " " + fileName;
-			//program = dir7zip + "\\7z.exe";
-			System.out.println(program + " " + params); 
-			ProcessBuilder pb = new ProcessBuilder(program, params);
-			pb.inheritIO();
-			Process p = pb.start();
-			p.waitFor();
+			metrics.time("7zip", () -> {
+				// -aoa: ein teilweise intern entpacktes Archiv ohne Rckfrage berschreiben
+				String params = "/C " + cd.dir7zip + "\\7z.exe" + " x -aoa -o\"" + destDir + "\" \"" + fileName + "\"";
+				String program = "cmd.exe";
+				//params = " x -o" + destDir + " " + fileName;
+				//program = dir7zip + "\\7z.exe";
+				System.out.println(program + " " + params); 
+				ProcessBuilder pb = new ProcessBuilder(program, params);
+				pb.inheritIO();
+				Process p = pb.start();
+				p.waitFor();
+			});
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -301,7 +558,8 @@ public class Unzipper {
 		if (!f.exists() || !f.isFile()) {
 			throw new UnzipException("zipFile \"" + cd.zipFileFull + "\" does not exist!");
 		}
-		unzipFile(cd.zipFileFull, cd.helpDir);
+		// die Abgaben zhlen erst beim Kopieren oder Entpacken in das unzipDir fr die Grenze des Laufs
+		moodleTooBig = unzipFile(cd.zipFileFull, cd.helpDir, false);
 	}
 	
 	/**
@@ -309,11 +567,14 @@ public class Unzipper {
 	 * @param dir
 	 */
 	private void deleteDir(String dir) {
-		try {
-			Process p = new ProcessBuilder("cmd.exe", "/C rmdir /s /q " + dir).start();
-			p.waitFor();
-		} catch (Exception e) {
-			e.printStackTrace();
+		JfrEvents.DeleteEvent ev = JfrEvents.delete();
+		List<IOException> errors = cd.deleteInBackground ? TreeDeleter.deleteInBackground(Paths.get(dir)) :
+			TreeDeleter.deleteTree(Paths.get(dir));
+		for (IOException e: errors) {
+			System.out.println("Delete of \"" + dir + "\" failed: " + e);
+		}
+		if (ev != null) {
+			ev.done(dir, cd.deleteInBackground, errors.isEmpty() ? "okay" : errors.size() + " errors");
 		}
 	}
 	
@@ -321,17 +582,91 @@ public class Unzipper {
 	 * Lscht Hilfs- und Zieldirectory - am Beginn einens neuen Uzipper-Laufes.
 	 * @param cd
 	 */
-	private void init(ConfigurationData cd) {
+	void init(ConfigurationData cd) {
 		cd.update();
-		if (cd.deleteHelp) {
+		if (cd.deleteHelp && !cd.streaming && cd.replayFile == null) {
 			deleteDir(cd.helpDir);
 			new File(cd.helpDir).mkdirs();
 		}
-		if (cd.deleteUnzipDir) {
+		if (cd.incremental) {
+			cd.previousManifest = RunManifest.read(Paths.get(cd.unzipDir));
+			if (cd.previousManifest != null && !cd.previousManifest.config.equals(cd.manifestConfig())) {
+				System.out.println("Configuration has changed since the last run, all students are processed.");
+				cd.previousManifest = null;
+			}
+		}
+		if (cd.deleteUnzipDir && cd.previousManifest == null && cd.output == OutputSink.Kind.dir) {
 			deleteDir(cd.unzipDir);
 			new File(cd.unzipDir).mkdirs();
 		}
+		try {
+			sink = OutputSink.create(cd.output, cd.unzipDir);
+		} catch (IOException e) {
+			throw new UnzipException("Output \"" + cd.output + "\" for \"" + cd.unzipDir + "\" could not be created!", e);
+		}
+		initFilters(cd);
+		cd.dedupIndex = cd.dedup ? new DedupIndex() : null;
+		fileCopier = new FileCopier(cd.preserveAttributes, cd.dedupIndex);
+		zipExtractor = new ZipExtractor(BufferPool.shared(), sizeGuard);
+		targetNames = new TargetNameRegistry(name -> Files.exists(sink.path(name)));
+		sourceRewriter = new JavaSourceRewriter(cd.sourceEncoding);
+	}
+
+	/**
+	 * Die Filter und Grenzen, ohne Zugriff auf die Directories (auch fr die Inventur).
+	 */
+	private void initFilters(ConfigurationData cd) {
 		copyFilter = new MyFilenameFilter(cd);
+		boolean copyZip = (cd.suffixList==null || cd.suffixList.length == 0);
+		treeFilter = new MyFilenameFilter(cd, copyZip, cd.suffixList);
+		javaFilter = new MyFilenameFilter(cd, false, new String[] {"java"});
+		sizeGuard = new SizeGuard(cd.maxFileSize, cd.maxStudentSize, cd.maxRunSize, cd.maxRatio);
+	}
+
+	/**
+	 * Inventur (Option -inv): liest nur das Central Directory des Moodle-Files (und der darin
+	 * abgegebenen Archive) und gibt pro Schler die Dateien, ihre Gren, das Ergebnis der
+	 * Filter, den erwarteten FileInfo und die Zielnamen aus, siehe Inventory. Es wird nichts 
+	 * entpackt, geschrieben oder gelscht.
+	 */
+	private void inventory(ConfigurationData cd) {
+		long start = System.nanoTime();
+		cd.update();
+		initFilters(cd);
+		cd.print();
+		readNameFile(cd);
+		File f = new File(cd.zipFileFull);
+		if (!f.exists() || !f.isFile()) {
+			throw new UnzipException("zipFile \"" + cd.zipFileFull + "\" does not exist!");
+		}
+		Inventory inventory = new Inventory(cd, copyFilter, treeFilter, sizeGuard);
+		System.out.println("\nInventory of \"" + cd.zipFileFull + "\":");
+		try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+			ZipDirectory moodle = ZipDirectory.read(ch, StandardCharsets.UTF_8);
+			Map<StudentName, List<ZipDirectory.Entry>> work = new LinkedHashMap<StudentName, List<ZipDirectory.Entry>>();
+			for (ZipDirectory.Entry e: moodle.entries) {
+				if (e.isDirectory()) {
+					continue;
+				}
+				String studentPart = studentPart(e.name);
+				StudentName t = findStudent(studentPart, cd);
+				if (t == null) {
+					t = attachFuzzy(studentPart, cd);
+				}
+				if (t != null) {
+					work.computeIfAbsent(t, k -> new ArrayList<ZipDirectory.Entry>()).add(e);
+				}
+			}
+			for (Map.Entry<StudentName, List<ZipDirectory.Entry>> w: work.entrySet()) {
+				inventory.add(w.getKey(), moodle, w.getValue());
+			}
+		} catch (IOException e) {
+			throw new UnzipException("zipFile \"" + cd.zipFileFull + "\" could not be read!", e);
+		}
+		inventory.print(System.out);
+		inventory.predict();
+		cd.writeNames();
+		System.out.println("inventory: " + (System.nanoTime() - start) / 1_000_000 + " ms");
 	}
 
 	/**
@@ -340,7 +675,7 @@ public class Unzipper {
 	 * @param cd
 	 * @return
 	 */
-	private StudentName findStudent(String fileName, ConfigurationData cd) {
+	StudentName findStudent(String fileName, ConfigurationData cd) {
 		String name = fileName.toLowerCase();
 		// fr Gruppenabgaben, aber "Gruppe" drfte nur die deutsche Version untersttzen. 
 		if (name.startsWith("gruppe ")) {
@@ -350,24 +685,100 @@ public class Unzipper {
 			}
 		}
 		//System.out.println("Name: " + name);
-		for (StudentName t: cd.studentList) {
-			if (name.startsWith(t.moodleName)) {
-				return t;
+		if (cd.studentIndex == null) {
+			cd.studentIndex = new StudentIndex(cd.studentList);
+		}
+		return cd.studentIndex.findLongestPrefix(name);
+	}
+
+	/**
+	 * Fr eine Abgabe, die findStudent keinem Schler zuordnen kann (Umlaute, Doppelnamen,
+	 * Tippfehler, Schler aus einer anderen Klasse): sucht den hnlichsten Namen in allen 
+	 * Namensfiles (siehe RosterIndex) und ordnet die Abgabe ab cd.fuzzyThreshold diesem Schler
+	 * zu. Ein Schler aus einer anderen Klasse wird in die Schlerliste aufgenommen.
+	 * @param fileName Directory bzw. Datei der Abgabe im Moodle-File
+	 * @return null, wenn die Abgabe nicht zugeordnet wird
+	 */
+	private StudentName attachFuzzy(String fileName, ConfigurationData cd) {
+		if (fuzzyResults.containsKey(fileName)) {
+			return fuzzyResults.get(fileName);
+		}
+		if (rosterIndex == null) {
+			try {
+				rosterIndex = RosterIndex.load(Paths.get(cd.nameDir), file -> rosterLines(cd, file));
+			} catch (IOException e) {
+				System.out.println("Name files in \"" + cd.nameDir + "\" could not be read: " + e);
+				rosterIndex = new RosterIndex();
+			}
+		}
+		// Moodle: <Name>_<id>_assignsubmission_file_, bei Gruppen "Gruppe <x>-" davor
+		String name = fileName.replaceFirst("_\\d+_.*$", "");
+		if (name.toLowerCase().startsWith("gruppe ") && name.indexOf('-') >= 0) {
+			name = name.substring(name.indexOf('-') + 1);
+		}
+		RosterIndex.Match m = rosterIndex.find(name, Paths.get(cd.nameFileFull));
+		StudentName t = null;
+		if (m == null) {
+			System.out.println("File \"" + fileName + "\" has not been attached to a student!");
+		} else if (m.score < cd.fuzzyThreshold) {
+			System.out.println("File \"" + fileName + "\" has not been attached to a student! Best candidate: " +
+				m.entry + String.format(Locale.ROOT, ", score %.2f", m.score));
+		} else {
+			t = fuzzyStudents.computeIfAbsent(m.entry, e -> studentFor(e, cd));
+			System.out.println("File \"" + fileName + "\" attached to " + m.entry + 
+				String.format(Locale.ROOT, ", score %.2f", m.score));
+		}
+		fuzzyResults.put(fileName, t);
+		return t;
+	}
+
+	/**
+	 * Der Schler zu einem Eintrag im RosterIndex, aus der Schlerliste oder neu angelegt.
+	 */
+	private static StudentName studentFor(RosterIndex.Entry e, ConfigurationData cd) {
+		if (e.file.equals(Paths.get(cd.nameFileFull))) {
+			for (StudentName t: cd.studentList) {
+				if (t.name.equals(e.name) && Objects.equals(t.vorName, e.vorName)) {
+					return t;
+				}
 			}
-			/*if (name.contains(t.packageName)) {
-				return t;
-			}*/
 		}
-		return null;
+		StudentName t = new StudentName(e.name);
+		t.vorName = e.vorName;
+		t.ignore = e.ignore;
+		t.subDir = e.subDir;
+		t.moodleName = e.moodleName;
+		cd.studentList.add(t);
+		return t;
+	}
+
+	/**
+	 * Kopiert ein File oder ein Directory, Fehler werden ausgegeben.
+	 * @param fromFile
+	 * @param toFile
+	 * @return was kopiert wurde und eventuelle Fehler
+	 */
+	private FileCopier.Result copyFileOrDir(String fromFile, String toFile) {
+		return copyFileOrDir(fromFile, toFile, new File(fromFile).isDirectory());
 	}
 
-	private void copyFileOrDir(String fromFile, String toFile) {
-		File f = new File(fromFile);
-		if (!f.isDirectory()) {
-			copyFile(fromFile, toFile);
+	private FileCopier.Result copyFileOrDir(String fromFile, String toFile, boolean isDirectory) {
+		JfrEvents.CopyEvent ev = JfrEvents.copy();
+		FileCopier.Result r;
+		if (!isDirectory) {
+			r = copyFile(fromFile, toFile);
 		} else {
-			copyDir(fromFile, toFile);
+			r = copyDir(fromFile, toFile);
+		}
+		metrics.files.addAndGet(r.files);
+		metrics.bytes.addAndGet(r.bytes);
+		for (IOException e: r.errors) {
+			System.out.println("Copy from \"" + fromFile + "\" to \"" + toFile + "\" failed: " + e);
 		}
+		if (ev != null) {
+			ev.done(fromFile, toFile, r.files, r.bytes, r.isOkay() ? "okay" : r.errors.size() + " errors");
+		}
+		return r;
 	}
 
 	/**
@@ -375,112 +786,117 @@ public class Unzipper {
 	 * @param fromFile
 	 * @param toFile
 	 */
-	private void copyFile(String fromFile, String toFile) {
+	private FileCopier.Result copyFile(String fromFile, String toFile) {
 		//System.out.println("Copy from \"" + fromFile + "\" to \"" + toFile + "\".");
+		FileCopier.Result r = new FileCopier.Result();
 		try {
-			String params = "/C copy /Y \"" + fromFile + "\" \"" + toFile + "\"";
-			String program = "cmd.exe";
-			//System.out.println(program + " " + params); 
-			ProcessBuilder pb = new ProcessBuilder(program, params);
-			//pb.inheritIO();
-			Process p = pb.start();
-			int rc = p.waitFor();
-			if (rc != 0) {
-				System.out.println("Copy Command failed with rc = " + rc + ", command:" +
-					"\n   " + program + " " + params);
-			}
-		} catch (Exception e) {
-			e.printStackTrace();
+			r.bytes = fileCopier.copyFile(Paths.get(fromFile), sink.path(toFile));
+			r.files = 1;
+		} catch (IOException e) {
+			r.errors.add(e);
 		}
+		return r;
 	}
 	/**
 	 * Kopiert ein diretory.
 	 * @param fromFile
 	 * @param toFile
 	 */
-	private void copyDir(String fromFile, String toFile) {
+	private FileCopier.Result copyDir(String fromFile, String toFile) {
 		//System.out.println("Copy from \"" + fromFile + "\" to \"" + toFile + "\".");
-		try {
-			String param = "xcopy /Y /E /I /H /Q \"" + fromFile + "\" \"" + toFile + "\"";
-			String program = "cmd.exe";
-			System.out.println(program + " " + param); 
-			ProcessBuilder pb = new ProcessBuilder(program, "/S", "/C", param);
-			pb.inheritIO();
-			Process p = pb.start();
-			p.waitFor();
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
+		return fileCopier.copyDir(Paths.get(fromFile), sink.path(toFile));
 	}
 		
-	private void renameFile(String fromFile, String toFile) {
-		File tf = new File(toFile);
+	/**
+	 * Benennt ein File oder Directory um, wenn mglich atomar.
+	 * @param fromFile
+	 * @param toFile
+	 * @return false, wenn das Umbenennen nicht mglich war
+	 */
+	private boolean renameFile(String fromFile, String toFile) {
+		Path from = sink.path(fromFile);
+		Path to = sink.path(toFile);
+		JfrEvents.RenameEvent ev = JfrEvents.rename();
 		try {
-			String params = "/C rename \"" + fromFile + "\" \"" + tf.getName() + "\"";
-			String program = "cmd.exe";
-			//System.out.println(program + " " + params); 
-			ProcessBuilder pb = new ProcessBuilder(program, params);
-			//pb.inheritIO();
-			Process p = pb.start();
-			p.waitFor();
-		} catch (Exception e) {
-			e.printStackTrace();
+			sink.move(from, to);
+			if (ev != null) {
+				ev.done(fromFile, toFile, "okay");
+			}
+			return true;
+		} catch (IOException e) {
+			System.out.println("Rename of \"" + fromFile + "\" to \"" + toFile + "\" failed: " + e);
+			if (ev != null) {
+				ev.done(fromFile, toFile, e.toString());
+			}
+			return false;
 		}
 	}
+
 	
 	
 	/**
 	 * Ein Dateifilter fr diverse Dateien, damit nicht alles kopiert wird.
 	 */
 	private MyFilenameFilter copyFilter;
-	private static class MyFilenameFilter implements FilenameFilter {
-		boolean withZipFiles = true;
-		boolean standardExclusions = true;
-		String[] includeList = null;
+	// Filter fr die Dateien in entpackten Abgaben bzw. fr updatePackage
+	private MyFilenameFilter treeFilter;
+	private MyFilenameFilter javaFilter;
+	static class MyFilenameFilter implements FilenameFilter {
+		FileMatcher matcher;
 		public MyFilenameFilter(ConfigurationData cd) {
-			includeList = cd.suffixList;
-			includeListToLower();
+			this(cd, true, cd.suffixList);
 		}
 		
-		public MyFilenameFilter(boolean withZipFiles, boolean standardExclusions, String[] includeList) {
-			this.withZipFiles = withZipFiles;
-			this.standardExclusions = standardExclusions;
-			this.includeList = includeList;
-			includeListToLower();
+		/**
+		 * @param withZipFiles Archive werden immer akzeptiert
+		 * @param includeList Positivliste der Extensions, die Ausschlsse kommen aus cd.
+		 */
+		public MyFilenameFilter(ConfigurationData cd, boolean withZipFiles, String[] includeList) {
+			matcher = matcher(cd, withZipFiles, includeList);
 		}
 
-		private void includeListToLower() {
-			if (includeList == null) 
-				return;
-			for (int i=0;i<includeList.length;i++)
-				includeList[i] = includeList[i].toLowerCase();
+		/**
+		 * Der bersetzte Filter, im Batch- und Daemon-Betrieb aus dem gemeinsamen Cache (cd.matchers).
+		 */
+		private static FileMatcher matcher(ConfigurationData cd, boolean withZipFiles, String[] includeList) {
+			if (cd.matchers == null) {
+				return new FileMatcher(withZipFiles, cd.excludeList, cd.excludeGlobs, includeList, cd.maxEntrySize);
+			}
+			String key = withZipFiles + "|" + Arrays.toString(cd.excludeList) + "|" + 
+				Arrays.toString(cd.excludeGlobs) + "|" + Arrays.toString(includeList) + "|" + cd.maxEntrySize;
+			return cd.matchers.computeIfAbsent(key, k -> 
+				new FileMatcher(withZipFiles, cd.excludeList, cd.excludeGlobs, includeList, cd.maxEntrySize));
 		}
-		
+
 		@Override
 		public boolean accept(File dir, String name) {
 			//System.out.println("acceptJF: dir=" + dir + ", name=" + name);
-			if (new File(dir, name).isDirectory()) {
-				return true;
-			}
-			String name1 = name.toLowerCase();
-			if (standardExclusions) {
-				if (name1.endsWith(".class") || name1.endsWith(".exe") || name1.endsWith(".bin") ||
-					name1.endsWith(".dll") || name1.endsWith(".ctxt") || name1.endsWith(".bluej")) {
-					return false;
-				}
-			}
-			if (withZipFiles && isZipFile(name1)) {
-				return true;
-			}
-			if (includeList == null || includeList.length==0) {
-				return true;
-			}
-			// suffixList ist eine Positivliste!!!
-			for (String suffix:includeList) {
-				if (name1.endsWith("."+suffix))
-					return true;
+			File f = new File(dir, name);
+			boolean isDirectory = f.isDirectory();
+			return matcher.accept(name, isDirectory, isDirectory ? -1 : f.length());
+		}
+
+		/**
+		 * Filter fr einen Dateinamen ohne Directory, z.B. einen Eintrag in einem zip-File.
+		 */
+		public boolean accept(String name) {
+			return matcher.accept(name);
+		}
+
+		/**
+		 * Die akzeptierten Eintrge eines Directories, ohne weitere Zugriffe fr isDirectory.
+		 */
+		List<FileMatcher.Item> list(String dir) {
+			return list(Paths.get(dir));
+		}
+
+		List<FileMatcher.Item> list(Path dir) {
+			try {
+				return matcher.list(dir);
+			} catch (IOException e) {
+				System.out.println("Directory \"" + dir + "\" could not be listed: " + e);
+				return Collections.emptyList();
 			}
-			return false;
 		}
 	};
 
@@ -492,17 +908,12 @@ public class Unzipper {
 	 * @param destDir das Destination Directory.
 	 */
 	private void moveDirTreeFlat(String dirTree, String destDir) {
-		File of = new File(dirTree);
-		boolean copyZip = (cd.suffixList==null || cd.suffixList.length == 0);
-		MyFilenameFilter cf = new MyFilenameFilter(copyZip, true, cd.suffixList);
-		String[] fileList = of.list(cf);
-		if (fileList == null) 
-			return;
-		for (String fn: fileList) {
-			if (new File(dirTree, fn).isDirectory()) {
-				moveDirTreeFlat(dirTree + "\\" +fn, destDir);
+		for (FileMatcher.Item item: treeFilter.list(dirTree)) {
+			String fn = item.name();
+			if (item.isDirectory()) {
+				moveDirTreeFlat(dirTree + File.separator +fn, destDir);
 			} else {
-				copySpecial(dirTree + "\\" + fn, destDir+"\\" + fn);
+				copySpecial(dirTree + File.separator + fn, destDir+File.separator + fn, false);
 			}
 		}
 
@@ -520,91 +931,46 @@ public class Unzipper {
 			packageName = dir.substring(baseDir.length()+1);
 			packageName = packageName.replace(File.separatorChar, '.');
 		}
-		String[] suffixList = {"java"};
-		MyFilenameFilter cf = new MyFilenameFilter(false, true, suffixList);
-		File fDir = new File(dir);
-		String[] fileList = fDir.list(cf);
-		if (fileList == null) 
-			return;
-		for (String fn: fileList) {
-			if (new File(dir, fn).isDirectory()) {
-				updatePackage(dir + "\\" +fn, baseDir);
+		for (FileMatcher.Item item: javaFilter.list(sink.path(dir))) {
+			String fn = item.name();
+			if (item.isDirectory()) {
+				updatePackage(dir + File.separator +fn, baseDir);
 			} else {
-				updatePackageSingle(dir + "\\" + fn, packageName);
+				updatePackageSingle(dir + File.separator + fn, packageName);
 			}
 		}
 	}
 	
-	private void updatePackageSingle(String fileName, String packageName) {
-		FileReader f = null;
-		PrintWriter w = null;
+	/**
+	 * Setzt den package Namen eines Java Files und benennt das File nach der ersten Klasse
+	 * um. Das File wird nur neu geschrieben, wenn sich die package Zeile ndert.
+	 * @param fileName
+	 * @param packageName null fr das default package
+	 */
+	void updatePackageSingle(String fileName, String packageName) {
+		JfrEvents.RewriteEvent ev = JfrEvents.rewrite();
 		try {
-			char[] cbuf = new char[(int)(new File(fileName).length())];
-			f = new FileReader(fileName);
-			f.read(cbuf);
-			f.close();
-			BufferedReader br = new BufferedReader(new StringReader(new String(cbuf)));
-			w = new PrintWriter(new FileWriter(fileName));
-			String line = br.readLine();
-			boolean packageWritten = false;
-			boolean classNameFound = false;
-			String className = null;
-			boolean isComment = false;
-			String pattern = ".*(^|\\s)class(\\s+)([a-zA-Z]\\w*).*";
-			Pattern p = Pattern.compile(pattern);
-			while (line != null) {
-				writePackage:
-				if (!packageWritten||!classNameFound) {
-					String l1 = line.trim();
-					if (l1.length() == 0) {
-						break writePackage;
-					}
-					if (!isComment) {
-						if (l1.startsWith("//")) {
-							break writePackage;
-						}
-						if (l1.startsWith("/*") && !l1.contains("*/")) {
-							isComment = true;
-							break writePackage;
-						}
-						if (!packageWritten) {
-							if (l1.contains("package ")) {
-								line = packageName==null?"":("package " + packageName + ";");
-							} else {
-								line = (packageName==null?"":("package " + packageName + ";\n")) + line;
-							}
-							packageWritten = true;
-						}
-						if (!classNameFound) {
-							Matcher m = p.matcher(l1);
-							if (m.matches()) {
-								className = m.group(3);
-								classNameFound = true;
-							}
-						}
-					} else {
-						if (l1.contains("*/")) {
-							isComment = false;
-						}
-					}
+			metrics.time("rewrite", () -> {
+				Path file = sink.path(fileName);
+				JavaSourceRewriter.Result r = sourceRewriter.rewrite(file, packageName);
+				if (ev != null) {
+					ev.done(fileName, packageName, r.changed, r.charset.name(), "okay");
 				}
-				w.println(line);
-				line = br.readLine();
-			}
-			w.close();
-			br.close();
-			if (classNameFound) {
-				File fi1 = new File(fileName);
-				if (!fi1.getName().startsWith(className)) {
-					fi1.renameTo(new File(fi1.getParentFile(), className+".java"));
+				if (r.className != null && !file.getFileName().toString().startsWith(r.className)) {
+					Path renamed = file.resolveSibling(r.className + ".java");
+					if (!Files.exists(renamed)) {
+						Files.move(file, renamed);
+					}
 				}
-			}
-			
+			});
 		} catch (IOException e) {
-			
+			System.out.println("Package of \"" + fileName + "\" could not be updated: " + e);
+			if (ev != null) {
+				ev.done(fileName, packageName, false, null, e.toString());
+			}
 		}
-		
 	}
+
 	
 	/**
 	 * Copies a file or directory, adds a counter, if the file/directory
@@ -612,49 +978,147 @@ public class Unzipper {
 	 * @param fromName
 	 * @param toName
 	 */
-	private void copySpecial(String fromName, String toName) {
-		String tn;
+	void copySpecial(String fromName, String toName) {
+		copySpecial(fromName, toName, new File(fromName).isDirectory());
+	}
+
+	/**
+	 * copySpecial, wenn schon bekannt ist, ob fromName ein Directory ist.
+	 */
+	private void copySpecial(String fromName, String toName, boolean isDirectory) {
+		synchronized (lockFor(toName)) {
+			String tn = resolveSpecial(toName);
+			if (tn != null) {
+				copyFileOrDir(fromName, tn, isDirectory);
+			}
+		}
+	}
+
+	/**
+	 * Writes the content of a stream to a file, adds a counter, if the file
+	 * already exists (same naming as copySpecial).
+	 * @param in
+	 * @param toName
+	 */
+	private void writeSpecial(InputStream in, String toName) {
+		writeSpecial(in, toName, null);
+	}
+
+	/**
+	 * @param written siehe resolveSpecial, null: nichts merken
+	 */
+	private void writeSpecial(InputStream in, String toName, List<String> written) {
+		synchronized (lockFor(toName)) {
+			String tn = resolveSpecial(toName, written);
+			if (tn != null) {
+				writeFile(in, tn);
+			}
+		}
+	}
+
+	/**
+	 * resolveSpecial fr ein Directory, welches danach befllt wird.
+	 */
+	private String resolveSpecialLocked(String toName) {
+		return resolveSpecialLocked(toName, null);
+	}
+
+	private String resolveSpecialLocked(String toName, List<String> written) {
+		synchronized (lockFor(toName)) {
+			String tn = resolveSpecial(toName, written);
+			if (tn != null) {
+				mkdirs(tn);
+			}
+			return tn;
+		}
+	}
+
+	/**
+	 * Legt ein Directory (auch im OutputSink) samt den fehlenden Parents an.
+	 */
+	private void mkdirs(String dir) {
 		try {
-			tn = new File(toName).getCanonicalPath();
-			File tf = new File(tn);
-			String tDir = tf.getParent();
-			String tName = tf.getName();
-			String tBaseName, tExtension;
-			int i = tName.lastIndexOf(".");
-			if (i == -1) {
-				tBaseName = tName;
-				tExtension = "";
-			} else {
-				tBaseName = tName.substring(0,i);
-				tExtension = tName.substring(i);
-			}
-			String tName1 = tBaseName + "1" + tExtension;
-			File tf1 = new File(tDir, tName1);
-			if (!tf.exists()) {
-				if (!tf1.exists()) {
-					copyFileOrDir(fromName, toName);
-				} else {
-					i = 2;
-					searchLoop:
-					while (true) {
-						File tf2 = new File(tDir, tBaseName + i + tExtension);
-						if (!tf2.exists()) {
-							copyFileOrDir(fromName, tf2.getCanonicalPath());
-							break searchLoop;
-						}
-						i = i + 1;
-					}
-				} 
-			} else {
-				//renameFile(fromName, tBaseName + "1" + tExtension);
-				//copyFileOrDir(fromName, tBaseName + "2" + tExtension);
-				renameFile(toName, tf1.getCanonicalPath());
-				File tf2 = new File(tDir, tBaseName + '2' + tExtension);
-				copyFileOrDir(fromName, tf2.getCanonicalPath());
+			Files.createDirectories(sink.path(dir));
+		} catch (IOException e) {
+			System.out.println("Directory \"" + dir + "\" could not be created: " + e);
+		}
+	}
+
+	/**
+	 * Lock fr alle Namen, die resolveSpecial fr toName vergeben kann (name, name1, name2,...),
+	 * damit parallele Tasks nicht denselben Namen bekommen oder eine Datei umbenennen, 
+	 * die gerade geschrieben wird.
+	 */
+	private Object lockFor(String toName) {
+		File tf = new File(toName).getAbsoluteFile();
+		String tName = tf.getName().toLowerCase();
+		int i = tName.lastIndexOf('.');
+		String tBaseName = i < 0 ? tName : tName.substring(0, i);
+		String tExtension = i < 0 ? "" : tName.substring(i);
+		String key = tf.getParent() + "|" + tBaseName.replaceAll("\\d+$", "") + "|" + tExtension;
+		return targetLocks.computeIfAbsent(key, k -> new Object());
+	}
+
+	/**
+	 * Determines the name for a new file or directory: toName, if it does not exist,
+	 * otherwise the name with a counter. If toName itself exists, it is renamed to
+	 * counter 1 and the new name gets counter 2.
+	 * The counters are kept in memory (see TargetNameRegistry), only names not seen 
+	 * before in this run are looked up in the file system.
+	 * @param toName
+	 * @return the name to be used
+	 */
+	private String resolveSpecial(String toName) {
+		return resolveSpecial(toName, null);
+	}
+
+	/**
+	 * @param written bekommt toName, wenn ein Name vergeben wurde (siehe ArchiveLayout.deleteWritten)
+	 */
+	private String resolveSpecial(String toName, List<String> written) {
+		TargetNameRegistry.Assignment a = targetNames.assign(toName);
+		if (a.renameFrom != null) {
+			renameFile(a.renameFrom, a.renameTo);
+		}
+		if (written != null && a.target != null) {
+			written.add(toName);
+		}
+		return a.target;
+	}
+
+
+	/**
+	 * Schreibt den Inhalt eines Streams (Eintrag eines Archivs) in eine Datei.
+	 * @param in wird nicht geschlossen
+	 * @param toFile
+	 * @return false, wenn das Schreiben fehlgeschlagen ist (die Meldung ist schon ausgegeben)
+	 */
+	private boolean writeFile(InputStream in, String toFile) {
+		MessageDigest digest = cd.dedupIndex == null ? null : DedupIndex.newDigest();
+		long bytes;
+		Path target = sink.path(toFile);
+		try (OutputStream out = Files.newOutputStream(target)) {
+			// mit -dedup wird beim Schreiben gleich der Hash berechnet
+			bytes = zipExtractor.copy(in, digest == null ? out : new DigestOutputStream(out, digest));
+			extractedBytes.addAndGet(bytes);
+			metrics.file(bytes);
+			extractedEntries.incrementAndGet();
+		} catch (SizeGuard.LimitException e) {
+			try {
+				Files.deleteIfExists(target);
+			} catch (IOException de) {
+				System.out.println("Delete of \"" + toFile + "\" failed: " + de);
 			}
+			throw new TooBigException("\"" + toFile + "\": " + e.getMessage(), e);
 		} catch (IOException e) {
-			e.printStackTrace();
+			System.out.println("Writing \"" + toFile + "\" failed: " + e.getMessage());
+			return false;
 		}
+		if (digest != null) {
+			cd.dedupIndex.countFile();
+			cd.dedupIndex.linkOrRegister(DedupIndex.key(bytes, digest), target);
+		}
+		return true;
 	}
 
 	
@@ -668,22 +1132,17 @@ public class Unzipper {
 	 */
 	private void moveDirTreeDirect(String dirTree, ConfigurationData cd,
 		StudentName sn) {
-		File of = new File(dirTree);
-		boolean copyZip = (cd.suffixList==null || cd.suffixList.length == 0);
-		MyFilenameFilter cf = new MyFilenameFilter(copyZip, true, cd.suffixList);
-		String[] fileList = of.list(cf);
-		if (fileList == null) 
-			return;
-		for (String fn: fileList) {
-			if (new File(dirTree, fn).isDirectory()) {
-				moveDirTreeDirect(dirTree + "\\" +fn, cd , sn);
+		for (FileMatcher.Item item: treeFilter.list(dirTree)) {
+			String fn = item.name();
+			if (item.isDirectory()) {
+				moveDirTreeDirect(dirTree + File.separator +fn, cd , sn);
 			} else {
 				String extension = "";
 				int li = fn.lastIndexOf('.');
 				if (li >= 0) {
 					extension = fn.substring(li);
 				}
-				copySpecial(dirTree + "\\" + fn, cd.unzipDir + "\\" + sn.subDir+extension);
+				copySpecial(dirTree + File.separator + fn, cd.unzipDir + File.separator + sn.subDir+extension, false);
 			}
 		}
 	}
@@ -707,7 +1166,7 @@ public class Unzipper {
 			return;
 		for (String fn: fileList) {
 			//System.out.println("Copyspecial: " + fn);
-			copySpecial(dirTree + "\\" + fn, cd.unzipDir + "\\" + sn.subDir + "\\" + fn);
+			copySpecial(dirTree + File.separator + fn, cd.unzipDir + File.separator + sn.subDir + File.separator + fn);
 		}
 	}
 	
@@ -716,7 +1175,7 @@ public class Unzipper {
 	 * @param name
 	 * @return
 	 */
-	private static boolean isZipFile(String name) {
+	static boolean isZipFile(String name) {
 		if (name.endsWith(".zip")) 
 			return true;
 		if (name.endsWith(".rar")) 
@@ -732,8 +1191,35 @@ public class Unzipper {
 		return false;
 	}
 
-	private void moveFiles(ConfigurationData cd) {
-		moveFilesNew(cd);
+	/**
+	 * Der Plan der Ablage: aus dem Hilfsdirectory erstellt (planLayout) oder mit -replay
+	 * gelesen, mit -plan wird er in eine Datei geschrieben.
+	 */
+	private LayoutPlan layoutPlan(ConfigurationData cd) {
+		LayoutPlan plan;
+		if (cd.replayFile != null) {
+			try {
+				plan = LayoutPlan.read(Paths.get(cd.replayFile), cd.helpDir, cd.unzipDir, cd.studentList);
+			} catch (IOException e) {
+				throw new UnzipException("Plan \"" + cd.replayFile + "\" could not be read!", e);
+			}
+			if (!plan.config.equals(cd.manifestConfig())) {
+				System.out.println("Plan \"" + cd.replayFile + "\" was made with another configuration: " + 
+					plan.config);
+			}
+		} else {
+			plan = planLayout(cd);
+		}
+		System.out.println("plan: " + plan.students.size() + " students, " + plan.files() + " files, " + 
+			plan.directories().size() + " directories");
+		if (cd.planFile != null) {
+			try {
+				plan.write(Paths.get(cd.planFile));
+			} catch (IOException e) {
+				throw new UnzipException("Plan \"" + cd.planFile + "\" could not be written!", e);
+			}
+		}
+		return plan;
 	}
 
 	/**
@@ -746,11 +1232,13 @@ public class Unzipper {
 		String[] fileList = of.list(copyFilter);
 		for (String name: fileList) {
 			//System.out.println("Filename: " + name);
-			String fullName = cd.helpDir + "\\" + name;
+			String fullName = cd.helpDir + File.separator + name;
 			File fullNameFile = new File(fullName);
 			StudentName t = findStudent(name, cd);
 			if (t == null) { 
-				System.out.println("File \"" + name + "\" has not been attached to a student!");
+				t = attachFuzzy(name, cd);
+			}
+			if (t == null) { 
 				continue;
 			}
 			if (fullNameFile.length() > cd.maxFileSize) {
@@ -761,7 +1249,7 @@ public class Unzipper {
 		   if (isZipFile(fullName)) {
 				String dirName = fullName.substring(0, fullName.length()-4).trim();
 				unzipFile(fullName, dirName);
-				String destDir = cd.unzipDir + "\\" + t.subDir;
+				String destDir = cd.unzipDir + File.separator + t.subDir;
 				/*if (cd.fst == FileStructureType.singleDir) {
 					// Spezialsubdir fr diesen Unpack-Typ!!
 					destDir = cd.unzipDir + "\\kl" + cd.klasse + "\\" +
@@ -770,142 +1258,1482 @@ public class Unzipper {
 				if (cd.fst == FileStructureType.noDir) {
 					moveDirTreeDirect(dirName, cd , t);
 				} else if (cd.fst == FileStructureType.singleDir) {
-					new File(destDir).mkdirs();
+					mkdirs(destDir);
 					moveDirTreeFlat(dirName, destDir);
 					updatePackage(destDir, cd.unzipDir);
 				} else if (cd.fst == FileStructureType.dirTree) {
-					new File(destDir).mkdirs();
+					mkdirs(destDir);
 					moveDirTreeUnchanged(dirName, cd , t);
 					//System.out.println("dirTree " + t.name);
 				} else {
-					new File(destDir).mkdirs();
-					copySpecial(dirName, destDir+ "\\" + t.subDir);
+					mkdirs(destDir);
+					copySpecial(dirName, destDir+ File.separator + t.subDir);
 				}
-				t.fileInfo = FileInfo.fileOkay;
+				okay(t);
 		   } else {
 				String actDir = cd.unzipDir;
-				new File(actDir).mkdirs();
+				mkdirs(actDir);
 				String extension = "";
 				int lastIndex = fullName.lastIndexOf('.');
 				if (lastIndex > 0) {
 					extension = fullName.substring(lastIndex);
 				}
 				if (cd.fst == FileStructureType.noDir) {
-					copySpecial(fullName, actDir+"\\" + t.subDir + extension);
+					copySpecial(fullName, actDir+File.separator + t.subDir + extension);
 				} else if (cd.fst == FileStructureType.singleDir) {
-					new File(actDir + "\\" + t.subDir).mkdirs();
-					copySpecial(fullName, actDir + "\\" + t.subDir+ "\\" + t.subDir  + extension);
-					updatePackage(actDir + "\\" + t.subDir, cd.unzipDir);
+					mkdirs(actDir + File.separator + t.subDir);
+					copySpecial(fullName, actDir + File.separator + t.subDir+ File.separator + t.subDir  + extension);
+					updatePackage(actDir + File.separator + t.subDir, cd.unzipDir);
 				} else if (cd.fst == FileStructureType.dirTree) {
-					new File(actDir + "\\" + t.subDir).mkdirs();
-					copySpecial(fullName, actDir + "\\" + t.subDir+ "\\" + t.subDir  + extension);
+					mkdirs(actDir + File.separator + t.subDir);
+					copySpecial(fullName, actDir + File.separator + t.subDir+ File.separator + t.subDir  + extension);
 				} else {
-					new File(actDir + "\\" + t.subDir).mkdirs();
-					copySpecial(fullName, actDir + "\\" + t.subDir+ "\\" + t.subDir  + extension);
+					mkdirs(actDir + File.separator + t.subDir);
+					copySpecial(fullName, actDir + File.separator + t.subDir+ File.separator + t.subDir  + extension);
+				}
+				okay(t);
+			}
+		}
+	}
+
+	/**
+	 * Plant die Ablage aus dem Hilfsdirectory nach den Regeln von moveSubmission, ohne in das
+	 * unzipDir zu schreiben: die Zielnamen aller Dateien und aller Eintrge abgegebener Archive
+	 * (aus ihrem Central Directory), die anzulegenden Directories und die Directories fr 
+	 * updatePackage. Nur Archive, die 7-zip entpacken muss, werden schon jetzt daneben im 
+	 * Hilfsdirectory entpackt. Die Grenzen werden erst beim Ausfhren geprft, ein Schler, dessen
+	 * Abgabe schon zu gro ist, bekommt aber keine Namen mehr.
+	 */
+	LayoutPlan planLayout(ConfigurationData cd) {
+		LayoutPlan plan = new LayoutPlan(cd.helpDir, cd.unzipDir, name -> Files.exists(sink.path(name)));
+		plan.config = cd.manifestConfig();
+		String[] intermediateFileList = new File(cd.helpDir).list();
+		Map<StudentName, List<String>> work = new LinkedHashMap<StudentName, List<String>>();
+		for (String intermediateFile:intermediateFileList) {
+			StudentName t = findStudent(intermediateFile, cd);
+			if (t == null) { 
+				t = attachFuzzy(intermediateFile, cd);
+			}
+			if (t == null) { 
+				continue;
+			}
+			work.computeIfAbsent(t, k -> new ArrayList<String>()).add(intermediateFile);
+		}
+		for (Map.Entry<StudentName, List<String>> w: work.entrySet()) {
+			LayoutPlan.StudentPlan sp = plan.student(w.getKey());
+			List<String> fullNames = new ArrayList<String>();
+			for (String intermediateFile: w.getValue()) {
+				String fullIntermediateName = cd.helpDir + File.separator + intermediateFile;
+				for (FileMatcher.Item item: copyFilter.list(fullIntermediateName)) {
+					String name = item.name();
+					System.out.println("Filename: " + name);
+					String fullName = fullIntermediateName + File.separator + name;
+					if (item.attrs.size() > cd.maxFileSize) {
+						plan.add(sp, LayoutPlan.Kind.tooBig, "File too big:\n   " + fullName, null, null);
+						continue;
+					}
+					fullNames.add(fullName);
+					sp.size += item.attrs.size();
+					if (cd.use7zipOnly || !ZipExtractor.canExtract(name)) {
+						sp.copySize += item.attrs.size();
+					}
+				}
+			}
+			sp.submissions = fullNames.size();
+			if (sizeGuard.maxStudent >= 0 && sp.size > sizeGuard.maxStudent) {
+				continue;
+			}
+			for (String fullName: fullNames) {
+				planSubmission(cd, plan, sp, fullName);
+			}
+		}
+		// Eintrge, die schon beim Entpacken des Moodle-Files zu gro waren
+		for (String entry: moodleTooBig) {
+			StudentName t = findStudent(studentPart(entry), cd);
+			if (t != null) {
+				plan.add(plan.student(t), LayoutPlan.Kind.tooBig, "File too big:\n   " + entry, null, null);
+			}
+		}
+		return plan;
+	}
+
+	/**
+	 * Plant eine einzelne abgegebene Datei (oder ein Archiv), siehe moveSubmission.
+	 */
+	private void planSubmission(ConfigurationData cd, LayoutPlan plan, LayoutPlan.StudentPlan sp, String fullName) {
+		StudentName t = sp.student;
+		String destDir = cd.unzipDir + File.separator + t.subDir;
+		if (!cd.use7zipOnly && ZipExtractor.canExtract(fullName)) {
+			ArchivePlanner planner = new ArchivePlanner(cd, plan, sp, fullName);
+			try (FileChannel ch = FileChannel.open(Paths.get(fullName), StandardOpenOption.READ)) {
+				ZipDirectory dir;
+				try {
+					dir = ZipDirectory.read(ch, ZipExtractor.FALLBACK_CHARSET);
+				} catch (ZipException e) {
+					// ohne Central Directory (z.B. abgeschnitten) wie moveArchive als Stream lesen
+					dir = null;
+				}
+				if (dir != null) {
+					planner.plan(new File(fullName).getName(), "", dir, 1);
+				} else {
+					// ein Fehler mitten im Stream soll nicht erst nach einem Teil der geplanten
+					// Eintrge auffallen, 7zip wrde sie sonst mit Zhlern noch einmal planen
+					readThrough(fullName);
+					try (InputStream in = new BufferedInputStream(new FileInputStream(fullName))) {
+						planner.plan(new File(fullName).getName(), "", in, 1);
+					}
+				}
+				if (cd.fst == FileStructureType.singleDir) {
+					plan.add(sp, LayoutPlan.Kind.rewrite, null, null, destDir);
+				}
+				return;
+			} catch (IOException e) {
+				System.out.println("Internal unzip of \"" + fullName + "\" failed (" + e.getMessage() +
+					"), using 7-zip.");
+			}
+		}
+		if (isZipFile(fullName)) {
+			String dirName = fullName.substring(0, fullName.lastIndexOf('.')).trim();
+			if (!unzipFile(fullName, dirName).isEmpty()) {
+				plan.add(sp, LayoutPlan.Kind.tooBig, "", null, null);
+			}
+			if (cd.fst == FileStructureType.noDir) {
+				planTreeDirect(cd, plan, sp, dirName);
+			} else if (cd.fst == FileStructureType.singleDir) {
+				plan.add(sp, LayoutPlan.Kind.mkdir, null, null, destDir);
+				planTreeFlat(plan, sp, dirName, destDir);
+				plan.add(sp, LayoutPlan.Kind.rewrite, null, null, destDir);
+			} else if (cd.fst == FileStructureType.dirTree) {
+				plan.add(sp, LayoutPlan.Kind.mkdir, null, null, destDir);
+				String[] fileList = new File(dirName).list();
+				if (fileList != null) {
+					for (String fn: fileList) {
+						planCopy(plan, sp, dirName + File.separator + fn, plan.assign(destDir + File.separator + fn));
+					}
+				}
+			} else {
+				plan.add(sp, LayoutPlan.Kind.mkdir, null, null, destDir);
+				planCopy(plan, sp, dirName, plan.assign(destDir + File.separator + t.subDir));
+			}
+		} else {
+			planCopy(plan, sp, fullName, plan.assign(submissionName(cd, t, fullName)));
+			if (cd.fst == FileStructureType.singleDir) {
+				plan.add(sp, LayoutPlan.Kind.rewrite, null, null, destDir);
+			}
+		}
+	}
+
+	/**
+	 * Liest ein Archiv ohne Central Directory einmal ganz durch.
+	 * @throws IOException wenn es nicht bis zum Ende gelesen werden kann
+	 */
+	private static void readThrough(String fullName) throws IOException {
+		try (ZipInputStream zin = new ZipInputStream(new BufferedInputStream(new FileInputStream(fullName)),
+			ZipExtractor.FALLBACK_CHARSET)) {
+			while (zin.getNextEntry() != null) {
+				zin.transferTo(OutputStream.nullOutputStream());
+			}
+		}
+	}
+
+	/**
+	 * Plan fr moveDirTreeDirect.
+	 */
+	private void planTreeDirect(ConfigurationData cd, LayoutPlan plan, LayoutPlan.StudentPlan sp, String dirTree) {
+		for (FileMatcher.Item item: treeFilter.list(dirTree)) {
+			String fn = item.name();
+			if (item.isDirectory()) {
+				planTreeDirect(cd, plan, sp, dirTree + File.separator + fn);
+			} else {
+				int li = fn.lastIndexOf('.');
+				String extension = li >= 0 ? fn.substring(li) : "";
+				plan.add(sp, LayoutPlan.Kind.copy, dirTree + File.separator + fn, null, 
+					plan.assign(cd.unzipDir + File.separator + sp.student.subDir + extension));
+			}
+		}
+	}
+
+	/**
+	 * Plan fr moveDirTreeFlat.
+	 */
+	private void planTreeFlat(LayoutPlan plan, LayoutPlan.StudentPlan sp, String dirTree, String destDir) {
+		for (FileMatcher.Item item: treeFilter.list(dirTree)) {
+			String fn = item.name();
+			if (item.isDirectory()) {
+				planTreeFlat(plan, sp, dirTree + File.separator + fn, destDir);
+			} else {
+				plan.add(sp, LayoutPlan.Kind.copy, dirTree + File.separator + fn, null, 
+					plan.assign(destDir + File.separator + fn));
+			}
+		}
+	}
+
+	/**
+	 * Plan fr copyFileOrDir mit einem schon vergebenen Namen: ein Directory wird mit allen
+	 * Dateien und Directories (auch leeren) darin bernommen.
+	 */
+	private void planCopy(LayoutPlan plan, LayoutPlan.StudentPlan sp, String fromName, String toName) {
+		File from = new File(fromName);
+		if (!from.isDirectory()) {
+			plan.add(sp, LayoutPlan.Kind.copy, fromName, null, toName);
+			return;
+		}
+		plan.add(sp, LayoutPlan.Kind.mkdir, null, null, toName);
+		String[] fileList = from.list();
+		if (fileList != null) {
+			for (String fn: fileList) {
+				planCopy(plan, sp, fromName + File.separator + fn, toName + File.separator + fn);
+			}
+		}
+	}
+
+	/**
+	 * Die Prfung der Eintrge eines abgegebenen Archivs vor der Ablage mit EntryRouter, 
+	 * gemeinsam fr ArchiveLayout, das die Eintrge schreibt, und ArchivePlanner, das sie 
+	 * nur plant.
+	 */
+	private abstract class ArchiveRouter<E> extends EntryRouter<E> {
+
+		ArchiveRouter(ConfigurationData cd, StudentName t) {
+			super(cd, t, treeFilter);
+		}
+
+		/**
+		 * Ein Eintrag wird bersprungen, weil er zu gro ist.
+		 */
+		abstract void tooBig(String message);
+
+		/**
+		 * Prft einen Eintrag: Directories, Eintrge, die aus dem Archiv hinaus zeigen, und zu
+		 * groe Eintrge werden bersprungen.
+		 * @param name Name des Eintrags, siehe archivePath
+		 * @param size Gre, -1: unbekannt
+		 * @return false, wenn der Eintrag bersprungen wird
+		 */
+		boolean accept(String archiveName, String name, boolean isDirectory, long size, long compressed) {
+			if (isDirectory || name.length() == 0) {
+				return false;
+			}
+			if (("/" + name + "/").contains("/../")) {
+				System.out.println("Entry \"" + name + "\" in \"" + archiveName + 
+					"\" skipped, it is outside of the archive!");
+				return false;
+			}
+			String tooBig = sizeGuard.check(size, compressed);
+			if (tooBig != null) {
+				tooBig("entry \"" + name + "\" in \"" + archiveName + "\" skipped, " + tooBig);
+				return false;
+			}
+			return true;
+		}
+
+		/**
+		 * @throws ZipException wenn das Archiv keinen Eintrag hat, z.B. ein rar oder 7z mit 
+		 * Endung .zip, das kann dann noch 7zip entpacken
+		 */
+		void requireEntries(String archiveName, int count) throws ZipException {
+			if (count == 0) {
+				throw new ZipException("archive \"" + archiveName + "\" is empty or no zip file");
+			}
+		}
+	}
+
+	/**
+	 * Plant die Eintrge eines abgegebenen Archivs (siehe ArchiveRouter), aus dem Central 
+	 * Directory (auch von darin unkomprimiert gespeicherten Archiven) oder, fr komprimierte
+	 * Archive im Archiv, aus dem Stream.
+	 */
+	private class ArchivePlanner extends ArchiveRouter<String> {
+		LayoutPlan plan;
+		LayoutPlan.StudentPlan sp;
+		String archive;
+
+		ArchivePlanner(ConfigurationData cd, LayoutPlan plan, LayoutPlan.StudentPlan sp, String archive) {
+			super(cd, sp.student);
+			this.plan = plan;
+			this.sp = sp;
+			this.archive = archive;
+			if (cd.fst != FileStructureType.noDir) {
+				plan.add(sp, LayoutPlan.Kind.mkdir, null, null, destDir);
+			}
+		}
+
+		void plan(String archiveName, String prefix, ZipDirectory dir, int depth) throws ZipException {
+			int count = 0;
+			for (ZipDirectory.Entry e: dir.entries) {
+				count++;
+				String name = archivePath(e.name);
+				if (!accept(archiveName, name, e.isDirectory(), e.size, e.compressedSize)) {
+					continue;
+				}
+				if (!EntryRouter.isNested(cd, name, depth)) {
+					route(prefix + name, prefix + name);
+					continue;
+				}
+				String nested = EntryRouter.nestedPrefix(prefix, name);
+				try {
+					if (e.method == ZipDirectory.STORED) {
+						plan(archiveName + "/" + name, nested, dir.nested(e, ZipExtractor.FALLBACK_CHARSET), depth + 1);
+					} else {
+						plan(archiveName + "/" + name, nested, SizeGuard.guard(dir.open(e), sizeGuard.file(), 
+							sizeGuard.ratio(e.compressedSize)), depth + 1);
+					}
+				} catch (SizeGuard.LimitException ex) {
+					tooBig("nested archive \"" + name + "\" in \"" + archiveName + "\" skipped, " + ex.getMessage());
+				} catch (IOException ex) {
+					System.out.println("User " + t.getName() + ": nested archive \"" + name +
+						"\" in \"" + archiveName + "\" could not be unzipped: " + ex.getMessage());
+				}
+			}
+			requireEntries(archiveName, count);
+		}
+
+		/**
+		 * Fr ein Archiv, das nur als Stream gelesen werden kann: die Eintrge werden gelesen,
+		 * um zum nchsten zu kommen, aber nicht aufgehoben.
+		 */
+		void plan(String archiveName, String prefix, InputStream in, int depth) throws IOException {
+			ZipInputStream zin = new ZipInputStream(ZipExtractor.nonClosing(in), ZipExtractor.FALLBACK_CHARSET);
+			int count = 0;
+			try {
+				ZipEntry e;
+				while ((e = zin.getNextEntry()) != null) {
+					count++;
+					String name = archivePath(e.getName());
+					if (!accept(archiveName, name, e.isDirectory(), e.getSize(), e.getCompressedSize())) {
+						continue;
+					}
+					if (!EntryRouter.isNested(cd, name, depth)) {
+						route(prefix + name, prefix + name);
+						continue;
+					}
+					try {
+						plan(archiveName + "/" + name, EntryRouter.nestedPrefix(prefix, name), zin, depth + 1);
+					} catch (ZipException ze) {
+						System.out.println("User " + t.getName() + ": nested archive \"" + name +
+							"\" in \"" + archiveName + "\" could not be unzipped: " + ze.getMessage());
+					}
+				}
+			} finally {
+				zin.close();
+			}
+			requireEntries(archiveName, count);
+		}
+
+		@Override
+		void file(String toName, String path) {
+			plan.add(sp, LayoutPlan.Kind.entry, archive, path, plan.assign(toName));
+		}
+
+		@Override
+		String directory(String toName) {
+			String dir = plan.assign(toName);
+			plan.add(sp, LayoutPlan.Kind.mkdir, null, null, dir);
+			return dir;
+		}
+
+		@Override
+		void fileIn(String dir, String path, String archivePath) {
+			plan.add(sp, LayoutPlan.Kind.entry, archive, archivePath, 
+				dir + File.separator + path.replace('/', File.separatorChar));
+		}
+
+		@Override
+		void tooBig(String message) {
+			plan.add(sp, LayoutPlan.Kind.tooBig, message, null, null);
+		}
+	}
+
+	/**
+	 * Der Name eines Eintrags mit '/' und ohne '/' am Anfang.
+	 */
+	private static String archivePath(String name) {
+		name = name.replace('\\', '/');
+		while (name.startsWith("/")) {
+			name = name.substring(1);
+		}
+		return name;
+	}
+
+	/**
+	 * Fhrt einen Plan aus: zuerst werden Namen, die es schon vor dem Lauf gab, umbenannt, dann
+	 * werden alle Directories in einem sortierten Durchgang angelegt (das Parent immer vor dem
+	 * Directory, ohne weitere Prfungen), zuletzt werden die Dateien pro Schler geschrieben.
+	 */
+	void executePlan(ConfigurationData cd, LayoutPlan plan) {
+		for (LayoutPlan.Op op: plan.renames) {
+			renameFile(op.source, op.target);
+		}
+		mkdirs(cd.unzipDir);
+		for (String dir: plan.directories()) {
+			try {
+				Files.createDirectory(sink.path(dir));
+			} catch (FileAlreadyExistsException e) {
+				// schon vor dem Lauf vorhanden
+			} catch (IOException e) {
+				System.out.println("Directory \"" + dir + "\" could not be created: " + e);
+			}
+		}
+		forEachStudent(cd, plan.students, (t, sp) -> executeStudent(cd, t, sp));
+	}
+
+	/**
+	 * Die Operationen eines Schlers: die Grenzen werden fr die ganze Abgabe vor dem Kopieren
+	 * geprft, dann werden die Dateien aus dem Hilfsdirectory nach ihrem Namen sortiert kopiert
+	 * und jedes abgegebene Archiv in einem Durchgang gelesen, zuletzt kommt updatePackage.
+	 */
+	private void executeStudent(ConfigurationData cd, StudentName t, LayoutPlan.StudentPlan sp) {
+		List<LayoutPlan.Op> copies = new ArrayList<LayoutPlan.Op>();
+		Map<String, List<LayoutPlan.Op>> archives = new TreeMap<String, List<LayoutPlan.Op>>();
+		Set<String> rewrites = new LinkedHashSet<String>();
+		for (LayoutPlan.Op op: sp.ops) {
+			switch (op.kind) {
+			case tooBig:
+				if (op.source.length() > 0) {
+					System.out.println("User " + t.getName() + ": " + op.source);
+				}
+				t.fileInfo = FileInfo.tooBig;
+				break;
+			case copy:
+				copies.add(op);
+				break;
+			case entry:
+				archives.computeIfAbsent(op.source, k -> new ArrayList<LayoutPlan.Op>()).add(op);
+				break;
+			case rewrite:
+				rewrites.add(op.target);
+				break;
+			default:
+				break;
+			}
+		}
+		if (sp.submissions == 0) {
+			return;
+		}
+		if (sizeGuard.maxStudent >= 0 && sp.size > sizeGuard.maxStudent) {
+			throw new TooBigException("submission of " + sp.size + " bytes, the limit is " + 
+				sizeGuard.maxStudent, null);
+		}
+		if (!sizeGuard.run.fits(sp.size)) {
+			throw new TooBigException("submission of " + sp.size + " bytes, the run limit is reached", null);
+		}
+		try {
+			t.sizeBudget.add(sp.copySize);
+			sizeGuard.run.add(sp.copySize);
+		} catch (SizeGuard.LimitException e) {
+			throw new TooBigException("submission of " + sp.size + " bytes: " + e.getMessage(), e);
+		}
+		copies.sort(Comparator.comparing(op -> op.source));
+		for (LayoutPlan.Op op: copies) {
+			copyFileOrDir(op.source, op.target, false);
+		}
+		boolean complete = true;
+		for (Map.Entry<String, List<LayoutPlan.Op>> a: archives.entrySet()) {
+			PlannedEntries entries = new PlannedEntries(cd, t, a.getValue());
+			try {
+				entries.write(a.getKey());
+				if (entries.remaining > 0) {
+					// geplant, aber im Archiv nicht gefunden (oder ein enthaltenes Archiv war nicht lesbar)
+					System.out.println("User " + t.getName() + ": " + entries.remaining + " of " + a.getValue().size() +
+						" planned entries of \"" + a.getKey() + "\" were not found!");
+					complete = false;
+				}
+			} catch (IOException e) {
+				System.out.println("Internal unzip of \"" + a.getKey() + "\" failed (" + e.getMessage() +
+					"), using 7-zip.");
+				entries.deleteWritten();
+				complete &= copyUnzipped(t, a.getKey(), a.getValue());
+			}
+		}
+		for (String dir: rewrites) {
+			updatePackage(dir, cd.unzipDir);
+		}
+		if (complete) {
+			okay(t);
+		}
+	}
+
+	/**
+	 * Wenn ein Archiv beim Ausfhren nicht gelesen werden kann (z.B. ein Fehler in den Daten, 
+	 * den das Central Directory nicht zeigt): das Archiv wird wie bei moveSubmission7zip daneben
+	 * entpackt und die geplanten Eintrge werden von dort kopiert. Eintrge enthaltener Archive
+	 * gibt es dort nicht.
+	 * @return false, wenn geplante Eintrge fehlen
+	 */
+	private boolean copyUnzipped(StudentName t, String archive, List<LayoutPlan.Op> ops) {
+		String dirName = archive.substring(0, archive.lastIndexOf('.')).trim();
+		if (!unzipFile(archive, dirName).isEmpty()) {
+			t.fileInfo = FileInfo.tooBig;
+		}
+		int missing = 0;
+		for (LayoutPlan.Op op: ops) {
+			File source = new File(dirName, op.path.replace('/', File.separatorChar));
+			if (source.isFile()) {
+				copyFileOrDir(source.getPath(), op.target, false);
+			} else {
+				missing++;
+			}
+		}
+		if (missing > 0) {
+			System.out.println("User " + t.getName() + ": " + missing + " of " + ops.size() + " entries of \"" +
+				archive + "\" could not be unzipped!");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Die geplanten Eintrge eines abgegebenen Archivs: das Archiv wird einmal der Reihe nach
+	 * gelesen, mit denselben Grenzen wie bei ArchiveLayout. Enthaltene Archive ohne geplante 
+	 * Eintrge werden bersprungen, das Lesen endet nach dem letzten geplanten Eintrag.
+	 */
+	private class PlannedEntries {
+		ConfigurationData cd;
+		StudentName t;
+		// Pfad im Archiv -> Zielnamen (ein Pfad kann mehrfach im Archiv stehen)
+		Map<String, Deque<String>> targets = new HashMap<String, Deque<String>>();
+		int remaining;
+		SizeGuard.Budget ratioBudget;
+		// die schon geschriebenen Zielnamen, fr deleteWritten
+		List<String> written = new ArrayList<String>();
+
+		PlannedEntries(ConfigurationData cd, StudentName t, List<LayoutPlan.Op> ops) {
+			this.cd = cd;
+			this.t = t;
+			for (LayoutPlan.Op op: ops) {
+				targets.computeIfAbsent(op.path, k -> new ArrayDeque<String>()).add(op.target);
+			}
+			remaining = ops.size();
+		}
+
+		/**
+		 * @throws IOException wenn das Archiv nicht gelesen oder ein Eintrag nicht geschrieben werden kann
+		 */
+		void write(String archive) throws IOException {
+			metrics.archives.incrementAndGet();
+			File f = new File(archive);
+			ratioBudget = sizeGuard.ratio(f.length());
+			try (InputStream in = new BufferedInputStream(new FileInputStream(f))) {
+				write(f.getName(), "", in, 1);
+			}
+		}
+
+		/**
+		 * Lscht die schon geschriebenen Eintrge nach einem Fehler, die Namen sind schon im 
+		 * Plan vergeben und werden danach wieder verwendet.
+		 */
+		void deleteWritten() {
+			for (String target: written) {
+				try {
+					Files.deleteIfExists(sink.path(target));
+				} catch (IOException e) {
+					System.out.println("Delete of \"" + target + "\" failed: " + e);
+				}
+			}
+			written.clear();
+		}
+
+		private void write(String archiveName, String prefix, InputStream in, int depth) throws IOException {
+			ZipInputStream zin = new ZipInputStream(ZipExtractor.nonClosing(in), ZipExtractor.FALLBACK_CHARSET);
+			try {
+				ZipEntry e;
+				while (remaining > 0 && (e = zin.getNextEntry()) != null) {
+					String name = archivePath(e.getName());
+					if (e.isDirectory() || name.length() == 0) {
+						continue;
+					}
+					if (EntryRouter.isNested(cd, name, depth)) {
+						String nested = EntryRouter.nestedPrefix(prefix, name);
+						if (!planned(nested)) {
+							continue;
+						}
+						metrics.nestedArchives.incrementAndGet();
+						try {
+							write(archiveName + "/" + name, nested, zin, depth + 1);
+						} catch (ZipException ze) {
+							System.out.println("User " + t.getName() + ": nested archive \"" + name +
+								"\" in \"" + archiveName + "\" could not be unzipped: " + ze.getMessage());
+						}
+						continue;
+					}
+					Deque<String> q = targets.get(prefix + name);
+					String target = q == null ? null : q.poll();
+					if (target != null) {
+						remaining--;
+						written.add(target);
+						if (!writeFile(SizeGuard.guard(zin, sizeGuard.file(), sizeGuard.ratio(e.getCompressedSize()), 
+							ratioBudget, t.sizeBudget, sizeGuard.run), target)) {
+							throw new ZipException("entry \"" + prefix + name + "\" could not be unzipped");
+						}
+					}
+				}
+			} finally {
+				zin.close();
+			}
+		}
+
+		private boolean planned(String prefix) {
+			for (Map.Entry<String, Deque<String>> e: targets.entrySet()) {
+				if (e.getKey().startsWith(prefix) && !e.getValue().isEmpty()) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Eine einzelne abgegebene Datei (oder ein Archiv) eines Schlers an den richtigen 
+	 * Platz im unzipDir bringen.
+	 * @param fullName die abgegebene Datei, ein Archiv wird daneben entpackt.
+	 */
+	private void moveSubmission(ConfigurationData cd, StudentName t, String fullName) {
+		if (!cd.use7zipOnly && ZipExtractor.canExtract(fullName)) {
+			try (InputStream in = new BufferedInputStream(new FileInputStream(fullName))) {
+				moveArchive(cd, t, new File(fullName).getName(), in, new File(fullName).length());
+				okay(t);
+				return;
+			} catch (IOException e) {
+				System.out.println("Internal unzip of \"" + fullName + "\" failed (" + e.getMessage() +
+					"), using 7-zip.");
+			}
+		}
+	   if (isZipFile(fullName)) {
+			moveSubmission7zip(cd, t, fullName);
+	   } else {
+			copySpecial(fullName, submissionTarget(cd, t, fullName));
+			if (cd.fst == FileStructureType.singleDir) {
+				updatePackage(cd.unzipDir + File.separator + t.subDir, cd.unzipDir);
+			}
+			okay(t);
+		}
+	}
+
+	/**
+	 * Ein abgegebenes Archiv mit 7zip daneben entpacken und das entpackte Directory 
+	 * ablegen (siehe moveSubmission).
+	 */
+	private void moveSubmission7zip(ConfigurationData cd, StudentName t, String fullName) {
+		//String dirName = fullName.substring(0, fullName.length()-4).trim();
+		String dirName = fullName.substring(0, fullName.lastIndexOf('.')).trim();
+		if (!unzipFile(fullName, dirName).isEmpty()) {
+			t.fileInfo = FileInfo.tooBig;
+		}
+		String destDir = cd.unzipDir + File.separator + t.subDir;
+		/*if (cd.fst == FileStructureType.singleDir) {
+			// Spezialsubdir fr diesen Unpack-Typ!!
+			destDir = cd.unzipDir + "\\kl" + cd.klasse + "\\" +
+				cd.unzipSubdir + "\\" + t.subDir;
+		}*/
+		if (cd.fst == FileStructureType.noDir) {
+			moveDirTreeDirect(dirName, cd , t);
+		} else if (cd.fst == FileStructureType.singleDir) {
+			mkdirs(destDir);
+			moveDirTreeFlat(dirName, destDir);
+			updatePackage(destDir, cd.unzipDir);
+		} else if (cd.fst == FileStructureType.dirTree) {
+			mkdirs(destDir);
+			moveDirTreeUnchanged(dirName, cd , t);
+			//System.out.println("dirTree " + t.name);
+		} else {
+			mkdirs(destDir);
+			copySpecial(dirName, destDir+ File.separator + t.subDir);
+		}
+		okay(t);
+	}
+
+	/**
+	 * Markiert die Abgabe als in Ordnung, auer ein Teil davon war schon zu gro.
+	 */
+	private static void okay(StudentName t) {
+		if (t.fileInfo != FileInfo.tooBig) {
+			t.fileInfo = FileInfo.fileOkay;
+		}
+	}
+
+	/**
+	 * Der Zielname fr eine nicht gepackte Abgabe: bei noDir <unzipDir>\<subDir>.<ext>, sonst
+	 * <unzipDir>\<subDir>\<subDir>.<ext>. Das Zieldirectory wird angelegt.
+	 * @param fileName Name der Abgabe, daraus wird die Extension genommen.
+	 */
+	private String submissionTarget(ConfigurationData cd, StudentName t, String fileName) {
+		mkdirs(cd.fst == FileStructureType.noDir ? cd.unzipDir : cd.unzipDir + File.separator + t.subDir);
+		return submissionName(cd, t, fileName);
+	}
+
+	/**
+	 * submissionTarget ohne Anlegen des Directories.
+	 */
+	static String submissionName(ConfigurationData cd, StudentName t, String fileName) {
+		String actDir = cd.unzipDir;
+		String extension = "";
+		int lastIndex = fileName.lastIndexOf('.');
+		if (lastIndex > 0) {
+			extension = fileName.substring(lastIndex);
+		}
+		if (cd.fst == FileStructureType.noDir) {
+			return actDir + File.separator + t.subDir + extension;
+		}
+		return actDir + File.separator + t.subDir + File.separator + t.subDir + extension;
+	}
+
+	/**
+	 * Verteilt die Eintrge eines abgegebenen Archivs direkt aus dem Stream auf die
+	 * Zieldateien, ohne das Archiv vorher zu entpacken. Die Ablage entspricht 
+	 * moveDirTreeDirect, moveDirTreeFlat, moveDirTreeUnchanged bzw. copySpecial des ganzen
+	 * Directories (dirTreePrefix). Enthaltene zip, jar, war und ear Archive werden bis zur 
+	 * Tiefe cd.maxNestingDepth ebenfalls direkt aus dem Stream entpackt, bei dirTree und 
+	 * dirTreePrefix in ein Directory mit dem Namen des Archivs (ohne Endung).
+	 * @param archiveName Name des Archivs, nur fr Meldungen
+	 * @param in das Archiv, wird nicht geschlossen
+	 * @param archiveSize Gre des Archivs fr die Grenze des Kompressionsverhltnisses, -1: unbekannt
+	 * @throws IOException wenn das Archiv nicht gelesen werden kann
+	 */
+	private void moveArchive(ConfigurationData cd, StudentName t, String archiveName, 
+		InputStream in, long archiveSize) throws IOException {
+		metrics.archives.incrementAndGet();
+		ArchiveLayout layout = new ArchiveLayout(cd, t, sizeGuard.ratio(archiveSize));
+		try {
+			layout.moveEntries(archiveName, "", in, 1);
+		} catch (IOException e) {
+			// 7zip soll nicht neben einem halb geschriebenen Archiv mit Zhlern ablegen
+			layout.deleteWritten();
+			throw e;
+		}
+		if (cd.fst == FileStructureType.singleDir) {
+			updatePackage(layout.destDir, cd.unzipDir);
+		}
+	}
+
+	/**
+	 * Die Ablage der Eintrge eines abgegebenen Archivs (siehe moveArchive).
+	 */
+	private class ArchiveLayout extends ArchiveRouter<InputStream> {
+		// alle Eintrge zusammen drfen hchstens maxRatio mal so gro wie das Archiv sein
+		SizeGuard.Budget ratioBudget;
+		// die Namen, fr die resolveSpecial eine Datei oder ein Directory vergeben hat
+		List<String> written = new ArrayList<String>();
+
+		ArchiveLayout(ConfigurationData cd, StudentName t, SizeGuard.Budget ratioBudget) {
+			super(cd, t);
+			this.ratioBudget = ratioBudget;
+			if (cd.fst != FileStructureType.noDir) {
+				mkdirs(destDir);
+			}
+		}
+
+		/**
+		 * @param prefix Pfad des Archivs innerhalb des abgegebenen Archivs ("" oder mit '/' am Ende)
+		 * @param depth Schachtelungstiefe dieses Archivs, das abgegebene Archiv hat Tiefe 1
+		 */
+		void moveEntries(String archiveName, String prefix, InputStream in, int depth) 
+			throws IOException {
+			// Namen ohne UTF-8 Flag wie bei 7zip in der OEM Codepage
+			ZipInputStream zin = new ZipInputStream(ZipExtractor.nonClosing(in), 
+				ZipExtractor.FALLBACK_CHARSET);
+			int count = 0;
+			try {
+				ZipEntry e;
+				while ((e = zin.getNextEntry()) != null) {
+					count++;
+					String name = archivePath(e.getName());
+					// die Gren im lokalen Header, wenn sie dort stehen
+					if (!accept(archiveName, name, e.isDirectory(), e.getSize(), e.getCompressedSize())) {
+						continue;
+					}
+					if (EntryRouter.isNested(cd, name, depth)) {
+						metrics.nestedArchives.incrementAndGet();
+						try {
+							moveEntries(archiveName + "/" + name, EntryRouter.nestedPrefix(prefix, name), zin, depth + 1);
+						} catch (ZipException ze) {
+							System.out.println("User " + t.getName() + ": nested archive \"" + name +
+								"\" in \"" + archiveName + "\" could not be unzipped: " + ze.getMessage());
+						}
+						continue;
+					}
+					route(prefix + name, SizeGuard.guard(zin, sizeGuard.file(), 
+						sizeGuard.ratio(e.getCompressedSize()), ratioBudget, t.sizeBudget, sizeGuard.run));
+				}
+			} finally {
+				zin.close();
+			}
+			requireEntries(archiveName, count);
+		}
+
+		@Override
+		void file(String toName, InputStream in) {
+			writeSpecial(in, toName, written);
+		}
+
+		@Override
+		String directory(String toName) {
+			return resolveSpecialLocked(toName, written);
+		}
+
+		/**
+		 * Schreibt einen Eintrag in ein schon mit resolveSpecial vergebenes Directory.
+		 */
+		@Override
+		void fileIn(String dir, String path, InputStream in) {
+			if (dir == null) {
+				return;
+			}
+			String target = dir + File.separator + path.replace('/', File.separatorChar);
+			mkdirs(new File(target).getParent());
+			writeFile(in, target);
+		}
+
+		@Override
+		void tooBig(String message) {
+			System.out.println("User " + t.getName() + ": " + message);
+			t.fileInfo = FileInfo.tooBig;
+		}
+
+		/**
+		 * Lscht alles, was aus dem Archiv schon geschrieben wurde, und gibt die Namen
+		 * im TargetNameRegistry wieder frei (rckwrts, damit auch Umbenennungen auf
+		 * Zhler 1 rckgngig gemacht werden). Danach kann das Archiv mit 7zip entpackt
+		 * werden, ohne dass die Dateien doppelt mit Zhlern abgelegt sind.
+		 */
+		void deleteWritten() {
+			for (int i = written.size() - 1; i >= 0; i--) {
+				String toName = written.get(i);
+				synchronized (lockFor(toName)) {
+					TargetNameRegistry.Assignment back = targetNames.release(toName);
+					if (back == null) {
+						continue;
+					}
+					for (IOException e: TreeDeleter.deleteTree(sink.path(back.target))) {
+						System.out.println("\"" + back.target + "\" could not be deleted: " + e);
+					}
+					if (back.renameFrom != null) {
+						renameFile(back.renameFrom, back.renameTo);
+					}
+				}
+			}
+			written.clear();
+			topTargets.clear();
+			prefixDir = null;
+		}
+	}
+
+	/**
+	 * Single-pass Variante von unzipMoodleFile und planLayout: die Eintrge des 
+	 * Moodle-Files werden der Reihe nach gelesen und direkt an ihren Zielort geschrieben,
+	 * ohne Hilfsdirectory. Der Schler wird aus dem Directory-Namen auf oberster Ebene 
+	 * bestimmt (bei einem Eintrag ohne Directory aus dem Filenamen, wie bei moveFilesOld).
+	 * Nur abgegebene Archive werden noch in ein temporres Directory entpackt.
+	 */
+	private void moveFilesStream(ConfigurationData cd) {
+		File f = new File(cd.zipFileFull);
+		if (!f.exists() || !f.isFile()) {
+			throw new UnzipException("zipFile \"" + cd.zipFileFull + "\" does not exist!");
+		}
+		try (ZipFile zf = new ZipFile(f, StandardCharsets.UTF_8)) {
+			Map<StudentName, List<ZipEntry>> work = new LinkedHashMap<StudentName, List<ZipEntry>>();
+			Enumeration<? extends ZipEntry> entries = zf.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry e = entries.nextElement();
+				if (e.isDirectory()) {
+					continue;
+				}
+				String studentPart = studentPart(e);
+				StudentName t = findStudent(studentPart, cd);
+				if (t == null) {
+					t = attachFuzzy(studentPart, cd);
+				}
+				if (t == null) {
+					continue;
+				}
+				work.computeIfAbsent(t, k -> new ArrayList<ZipEntry>()).add(e);
+			}
+			RunManifest manifest = new RunManifest();
+			manifest.config = cd.manifestConfig();
+			if (cd.previousManifest != null) {
+				skipUnchanged(cd, work, manifest);
+			}
+			skipTooBig(work);
+			if (cd.pipeline == null) {
+				forEachStudent(cd, work, (t, studentEntries) -> moveEntries(cd, zf, t, studentEntries));
+			} else {
+				try (StagedPipeline pipeline = new StagedPipeline(cd.pipeline[0], cd.pipeline[1], 
+					cd.pipeline[2], cd.pipeline[3])) {
+					forEachStudent(cd, work, (t, studentEntries) -> 
+						moveEntriesPiped(cd, zf, t, studentEntries, pipeline));
+				}
+			}
+			writeManifest(cd, work, manifest);
+		} catch (IOException e) {
+			throw new UnzipException("zipFile \"" + cd.zipFileFull + "\" could not be read!", e);
+		}
+	}
+
+	/**
+	 * Entfernt die Schler aus work, deren Abgaben laut Central Directory grer als die
+	 * Grenze pro Schler sind oder nicht mehr in die Grenze des Laufes passen. Dabei wird
+	 * nichts entpackt, die tatschlichen Gren werden beim Entpacken geprft.
+	 */
+	private void skipTooBig(Map<StudentName, List<ZipEntry>> work) {
+		long runSize = 0;
+		for (Iterator<Map.Entry<StudentName, List<ZipEntry>>> it = work.entrySet().iterator(); it.hasNext(); ) {
+			Map.Entry<StudentName, List<ZipEntry>> w = it.next();
+			StudentName t = w.getKey();
+			long size = 0;
+			for (ZipEntry e: w.getValue()) {
+				size += Math.max(e.getSize(), 0);
+			}
+			runSize += size;
+			String reason = null;
+			if (sizeGuard.maxStudent >= 0 && size > sizeGuard.maxStudent) {
+				reason = "delivery of " + size + " bytes exceeds the limit of " + sizeGuard.maxStudent + " bytes";
+			} else if (!sizeGuard.run.fits(runSize)) {
+				reason = "the run limit is reached";
+				runSize -= size;
+			}
+			if (reason != null) {
+				System.out.println("User " + t.getName() + ": skipped, " + reason);
+				t.fileInfo = FileInfo.tooBig;
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Die Fingerprints der Eintrge eines Schlers im Moodle-File fr das Manifest.
+	 */
+	private static List<String> fingerprint(List<ZipEntry> entries) {
+		List<String> result = new ArrayList<String>();
+		for (ZipEntry e: entries) {
+			result.add(RunManifest.entry(e.getName(), e.getSize(), e.getCrc(), e.getTime()));
+		}
+		Collections.sort(result);
+		return result;
+	}
+
+	/**
+	 * Inkrementeller Lauf: Schler, deren Eintrge im Moodle-File sich seit dem letzten
+	 * Lauf nicht gendert haben, werden aus work entfernt und unverndert ins neue Manifest
+	 * bernommen. Bei allen anderen Schlern des letzten Laufes werden die damals 
+	 * erzeugten Dateien gelscht.
+	 */
+	private void skipUnchanged(ConfigurationData cd, Map<StudentName, List<ZipEntry>> work, 
+		RunManifest manifest) {
+		Map<String, RunManifest.StudentRecord> previous = 
+			new HashMap<String, RunManifest.StudentRecord>(cd.previousManifest.students);
+		Iterator<Map.Entry<StudentName, List<ZipEntry>>> it = work.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<StudentName, List<ZipEntry>> w = it.next();
+			StudentName t = w.getKey();
+			RunManifest.StudentRecord rec = previous.get(t.getName());
+			if (rec != null && rec.entries.equals(fingerprint(w.getValue()))) {
+				t.fileInfo = FileInfo.valueOf(rec.fileInfo);
+				manifest.students.put(t.getName(), rec);
+				previous.remove(t.getName());
+				it.remove();
+			}
+		}
+		System.out.println("incremental: " + manifest.students.size() + " students unchanged, " +
+			work.size() + " students new or changed");
+		for (RunManifest.StudentRecord rec: previous.values()) {
+			for (String o: rec.outputs) {
+				for (IOException e: TreeDeleter.deleteTree(Paths.get(cd.unzipDir, o))) {
+					System.out.println("Delete of \"" + o + "\" failed: " + e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Schreibt das Manifest fr die bearbeiteten Schler ins unzipDir.
+	 */
+	private void writeManifest(ConfigurationData cd, Map<StudentName, List<ZipEntry>> work, 
+		RunManifest manifest) {
+		Map<String, List<String>> assigned = targetNames.assignedNames(cd.unzipDir);
+		for (Map.Entry<StudentName, List<ZipEntry>> w: work.entrySet()) {
+			StudentName t = w.getKey();
+			RunManifest.StudentRecord rec = new RunManifest.StudentRecord();
+			rec.fileInfo = t.fileInfo.name();
+			rec.entries = fingerprint(w.getValue());
+			if (cd.fst == FileStructureType.noDir) {
+				List<String> names = assigned.get(t.subDir);
+				if (names != null) {
+					rec.outputs.addAll(names);
+				}
+			} else if (new File(cd.unzipDir, t.subDir).exists()) {
+				rec.outputs.add(t.subDir);
+			}
+			manifest.students.put(t.getName(), rec);
+		}
+		try {
+			manifest.write(Paths.get(cd.unzipDir));
+		} catch (IOException e) {
+			System.out.println("Manifest could not be written: " + e);
+		}
+	}
+
+	/**
+	 * Der Teil des Eintrags im Moodle-File, welcher den Schler bestimmt: das Directory auf 
+	 * oberster Ebene, bzw. der Filename bei einem Eintrag ohne Directory.
+	 */
+	private static String studentPart(ZipEntry e) {
+		return studentPart(e.getName());
+	}
+
+	private static String studentPart(String name) {
+		String entryName = name.replace('\\', '/');
+		int i = entryName.indexOf('/');
+		return i < 0 ? entryName : entryName.substring(0, i);
+	}
+
+	/**
+	 * Ein Eintrag des Moodle-Files, dessen Bytes fr alle Grenzen von sizeGuard gezhlt werden.
+	 */
+	private InputStream guarded(ZipFile zf, ZipEntry e, StudentName t) throws IOException {
+		return SizeGuard.guard(zf.getInputStream(e), sizeGuard.file(), sizeGuard.ratio(e.getCompressedSize()),
+			t.sizeBudget, sizeGuard.run);
+	}
+
+	/**
+	 * Bringt die Eintrge eines Schlers aus dem Moodle-File an ihren Zielort (streaming mode).
+	 */
+	private void moveEntries(ConfigurationData cd, ZipFile zf, StudentName t, List<ZipEntry> entries) {
+		// Directories innerhalb einer Abgabe: Name in moodle -> Name im unzipDir
+		Map<String, String> dirTargets = new HashMap<String, String>();
+		for (ZipEntry e: entries) {
+			String entryName = e.getName().replace('\\', '/');
+			String studentPart = studentPart(e);
+			String name = entryName.length() == studentPart.length() ? entryName : 
+				entryName.substring(studentPart.length() + 1);
+			try {
+				int j = name.indexOf('/');
+				if (j >= 0 && outside(entryName, name)) {
+					continue;
+				}
+				if (j >= 0) {
+					// Directory innerhalb der Abgabe, wird wie von copySpecial als ganzes bernommen
+					String dirKey = studentPart + "/" + name.substring(0, j);
+					String dirTarget = dirTargets.get(dirKey);
+					if (dirTarget == null) {
+						dirTarget = resolveSpecialLocked(submissionTarget(cd, t, name.substring(0, j)));
+						dirTargets.put(dirKey, dirTarget);
+					}
+					String target = dirTarget + File.separator + name.substring(j+1).replace('/', File.separatorChar);
+					mkdirs(new File(target).getParent());
+					try (InputStream in = guarded(zf, e, t)) {
+						writeFile(in, target);
+					}
+					okay(t);
+					continue;
+				}
+				if (!copyFilter.accept(name)) {
+					continue;
+				}
+				System.out.println("Filename: " + name);
+				String tooBig = sizeGuard.check(e.getSize(), e.getCompressedSize());
+				if (tooBig != null) {
+					System.out.println("User " + t.getName() + ": File too big (" + tooBig + "):\n   " + entryName);
+					t.fileInfo = FileInfo.tooBig;
+					continue;
+				}
+				if (isArchive(cd, name)) {
+					moveArchiveEntry(cd, zf, t, e, name);
+					continue;
+				}
+				try (InputStream in = guarded(zf, e, t)) {
+					writeSpecial(in, submissionTarget(cd, t, name));
+				}
+				if (cd.fst == FileStructureType.singleDir) {
+					updatePackage(cd.unzipDir + File.separator + t.subDir, cd.unzipDir);
+				}
+				okay(t);
+			} catch (IOException ex) {
+				System.out.println("User " + t.getName() + ": \"" + entryName + "\" could not be unzipped: " +
+					ex.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Ein Eintrag eines Directories innerhalb der Abgabe, der mit ".." aus dem Directory
+	 * hinaus zeigt (wie bei ArchiveRouter.accept), wird bersprungen.
+	 * @param name der Name innerhalb der Abgabe
+	 */
+	private static boolean outside(String entryName, String name) {
+		if (("/" + name + "/").contains("/../")) {
+			System.out.println("Entry \"" + entryName + "\" skipped, it is outside of the delivery!");
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Ob ein abgegebener Eintrag ein Archiv ist, welches moveArchiveEntry entpackt.
+	 */
+	private static boolean isArchive(ConfigurationData cd, String name) {
+		return (!cd.use7zipOnly && ZipExtractor.canExtract(name)) || isZipFile(name);
+	}
+
+	/**
+	 * Entpackt ein abgegebenes Archiv aus dem Moodle-File an den Zielort der Abgabe.
+	 */
+	private void moveArchiveEntry(ConfigurationData cd, ZipFile zf, StudentName t, ZipEntry e, String name) 
+		throws IOException {
+		if (!cd.use7zipOnly && ZipExtractor.canExtract(name)) {
+			// das Archiv selbst wird nicht geschrieben, nur seine Eintrge zhlen fr den Schler
+			try (InputStream in = SizeGuard.guard(zf.getInputStream(e), sizeGuard.file(), 
+				sizeGuard.ratio(e.getCompressedSize()))) {
+				moveArchive(cd, t, name, in, e.getSize());
+				okay(t);
+				return;
+			} catch (SizeGuard.LimitException le) {
+				throw le;
+			} catch (IOException ie) {
+				System.out.println("Internal unzip of \"" + name + "\" failed (" + ie.getMessage() +
+					"), using 7-zip.");
+			}
+		}
+		// rar, 7z,... werden in einem temporren Directory mit 7zip entpackt
+		Path tmp = Files.createTempDirectory("moodleUnzipper");
+		String fullName = tmp.resolve(name).toString();
+		try (InputStream in = guarded(zf, e, t)) {
+			writeFile(in, fullName);
+		}
+		if (isZipFile(fullName)) {
+			moveSubmission7zip(cd, t, fullName);
+		} else {
+			moveSubmission(cd, t, fullName);
+		}
+		deleteDir(tmp.toString());
+	}
+
+	/**
+	 * Ein Eintrag des Moodle-Files auf dem Weg durch die StagedPipeline. Die bergabe 
+	 * zwischen den Stufen (CompletableFuture, Queue des Schreibers) sorgt fr die Sichtbarkeit.
+	 */
+	private static class InFlight {
+		String target;
+		// null: zu gro fr den Speicher, wird beim Schreiben direkt aus dem Moodle-File gelesen
+		byte[] data;
+		// erste Klasse eines umgeschriebenen Java-Files
+		String className;
+
+		InFlight(String target) {
+			this.target = target;
+		}
+	}
+
+	// Grere Eintrge werden von der Pipeline nicht im Speicher gehalten
+	private static final long MAX_IN_FLIGHT = 1 << 20;
+
+	/**
+	 * moveEntries mit der StagedPipeline (Option -pipe): hier werden nur die Zielnamen
+	 * vergeben, Entpacken, Umschreiben der Java-Files (singleDir) und Schreiben erledigen
+	 * die Stufen der Pipeline. Bevor eine Datei umbenannt oder ein abgegebenes Archiv
+	 * entpackt wird, wird gewartet, bis alle bisherigen Eintrge des Schlers geschrieben sind.
+	 */
+	private void moveEntriesPiped(ConfigurationData cd, ZipFile zf, StudentName t, List<ZipEntry> entries,
+		StagedPipeline pipeline) {
+		StagedPipeline.Group group = pipeline.group();
+		Map<String, String> dirTargets = new HashMap<String, String>();
+		try {
+			for (ZipEntry e: entries) {
+				String entryName = e.getName().replace('\\', '/');
+				String studentPart = studentPart(e);
+				String name = entryName.length() == studentPart.length() ? entryName : 
+					entryName.substring(studentPart.length() + 1);
+				int j = name.indexOf('/');
+				if (j >= 0 && outside(entryName, name)) {
+					continue;
+				}
+				if (j >= 0) {
+					String dirKey = studentPart + "/" + name.substring(0, j);
+					String dirTarget = dirTargets.get(dirKey);
+					if (dirTarget == null) {
+						dirTarget = resolvePiped(pipeline, submissionTarget(cd, t, name.substring(0, j)));
+						dirTargets.put(dirKey, dirTarget);
+					}
+					if (dirTarget != null) {
+						submitEntry(cd, group, zf, t, e, 
+							dirTarget + File.separator + name.substring(j+1).replace('/', File.separatorChar));
+					}
+					continue;
+				}
+				if (!copyFilter.accept(name)) {
+					continue;
+				}
+				System.out.println("Filename: " + name);
+				String tooBig = sizeGuard.check(e.getSize(), e.getCompressedSize());
+				if (tooBig != null) {
+					System.out.println("User " + t.getName() + ": File too big (" + tooBig + "):\n   " + entryName);
+					t.fileInfo = FileInfo.tooBig;
+					continue;
+				}
+				if (isArchive(cd, name)) {
+					group.await();
+					try {
+						moveArchiveEntry(cd, zf, t, e, name);
+					} catch (IOException ex) {
+						System.out.println("User " + t.getName() + ": \"" + entryName + "\" could not be unzipped: " +
+							ex.getMessage());
+					}
+					continue;
+				}
+				String toName = submissionTarget(cd, t, name);
+				synchronized (lockFor(toName)) {
+					// wie writeSpecial: kein anderer Task bekommt den Namen, bevor die Datei bergeben ist
+					String target = resolvePiped(pipeline, toName);
+					if (target != null) {
+						submitEntry(cd, group, zf, t, e, target);
+					}
+				}
+			}
+			group.await();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new UnzipException("interrupted", ex);
+		}
+	}
+
+	/**
+	 * resolveSpecial fr moveEntriesPiped: vor dem Umbenennen wird gewartet, bis die Datei
+	 * geschrieben ist (sie kann auch von einem anderen Schler mit demselben subDir sein).
+	 */
+	private String resolvePiped(StagedPipeline pipeline, String toName) throws InterruptedException {
+		synchronized (lockFor(toName)) {
+			TargetNameRegistry.Assignment a = targetNames.assign(toName);
+			if (a.renameFrom != null) {
+				pipeline.await();
+				renameFile(a.renameFrom, a.renameTo);
+			}
+			return a.target;
+		}
+	}
+
+	/**
+	 * Schickt einen Eintrag durch die Pipeline. Bei singleDir bekommen Java-Files das
+	 * package ihres Directories (wie von updatePackage) und werden nach der ersten Klasse benannt.
+	 */
+	private void submitEntry(ConfigurationData cd, StagedPipeline.Group group, ZipFile zf, StudentName t,
+		ZipEntry e, String target) throws InterruptedException {
+		InFlight item = new InFlight(target);
+		String dir = new File(target).getParent();
+		String packageName = dir.length() > cd.unzipDir.length() + 1 ? 
+			dir.substring(cd.unzipDir.length() + 1).replace(File.separatorChar, '.') : null;
+		boolean rewrite = cd.fst == FileStructureType.singleDir && javaFilter.accept(new File(target).getName());
+		group.submit(() -> {
+				if (e.getSize() >= 0 && e.getSize() <= MAX_IN_FLIGHT) {
+					try (InputStream in = guarded(zf, e, t)) {
+						item.data = in.readAllBytes();
+					}
+				}
+			},
+			rewrite ? () -> rewriteInFlight(item, packageName) : null,
+			() -> {
+				if (item.className != null && !new File(item.target).getName().startsWith(item.className)) {
+					String renamed = new File(dir, item.className + ".java").getPath();
+					if (targetNames.claim(renamed)) {
+						item.target = renamed;
+					}
+				}
+				mkdirs(dir);
+				if (item.data != null) {
+					writeFile(new ByteArrayInputStream(item.data), item.target);
+				} else {
+					try (InputStream in = guarded(zf, e, t)) {
+						writeFile(in, item.target);
+					}
+					if (rewrite) {
+						updatePackageSingle(item.target, packageName);
+					}
+				}
+				okay(t);
+			},
+			ex -> {
+				if (ex instanceof SizeGuard.LimitException) {
+					throw new TooBigException("\"" + target + "\": " + ex.getMessage(), ex);
+				}
+				System.out.println("User " + t.getName() + ": \"" + e.getName() + "\" could not be unzipped: " +
+					ex.getMessage());
+			});
+	}
+
+	/**
+	 * Setzt das package eines Java-Files im Speicher, siehe updatePackageSingle. Ist das
+	 * nicht mglich, wird das File unverndert geschrieben.
+	 */
+	private void rewriteInFlight(InFlight item, String packageName) {
+		if (item.data == null) {
+			// wird nach dem Schreiben mit updatePackageSingle umgeschrieben
+			return;
+		}
+		JfrEvents.RewriteEvent ev = JfrEvents.rewrite();
+		try {
+			metrics.time("rewrite", () -> {
+				JavaSourceRewriter.Result r = sourceRewriter.rewrite(item.data, packageName);
+				item.data = r.content;
+				item.className = r.className;
+				if (ev != null) {
+					ev.done(item.target, packageName, r.changed, r.charset.name(), "okay");
+				}
+			});
+		} catch (IOException e) {
+			System.out.println("Package of \"" + item.target + "\" could not be updated: " + e);
+			if (ev != null) {
+				ev.done(item.target, packageName, false, null, e.toString());
+			}
+		}
+	}
+
+	/**
+	 * Fhrt die Arbeit fr jeden Schler aus, bei cd.threads != 1 parallel mit einem 
+	 * Task pro Schler. Die Schler sind voneinander unabhngig, nur die Namensvergabe
+	 * von copySpecial wird synchronisiert (siehe lockFor).
+	 */
+	private <T> void forEachStudent(ConfigurationData cd, Map<StudentName, T> work, 
+		BiConsumer<StudentName, T> action) {
+		if (cd.threads == 1 || work.size() <= 1) {
+			for (Map.Entry<StudentName, T> w: work.entrySet()) {
+				timed(w.getKey(), w.getValue(), action);
+			}
+			return;
+		}
+		ExecutorService executor = cd.executor != null ? cd.executor : newExecutor(cd.threads);
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (Map.Entry<StudentName, T> w: work.entrySet()) {
+				futures.add(executor.submit(() -> timed(w.getKey(), w.getValue(), action)));
+			}
+			for (Future<?> f: futures) {
+				try {
+					f.get();
+				} catch (ExecutionException e) {
+					e.getCause().printStackTrace();
 				}
-				t.fileInfo = FileInfo.fileOkay;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new UnzipException("interrupted", e);
+		} finally {
+			if (executor != cd.executor) {
+				executor.shutdownNow();
 			}
 		}
 	}
 
 	/**
-	 * Optionally unpack and move the files transmitted to moodle to the correct 
-	 * package directory.
-	 * Version for new Moodle Version 09/2016
+	 * Fhrt die Arbeit fr einen Schler aus und merkt sich die Dauer.
 	 */
-	private void moveFilesNew(ConfigurationData cd) {
-		File of = new File(cd.helpDir);
-		
-		// new intermediate directory structure
-		// the intermediate files are all directories!!!!!
-		String[] intermediateFileList = of.list();
-		for (String intermediateFile:intermediateFileList) {
-			StudentName t = findStudent(intermediateFile, cd);
-			if (t == null) { 
-				System.out.println("File \"" + intermediateFile + "\" has not been attached to a student!");
-				continue;
+	private <T> void timed(StudentName t, T work, BiConsumer<StudentName, T> action) {
+		long start = System.nanoTime();
+		JfrEvents.setStudent(t.getName());
+		JfrEvents.StudentEvent ev = JfrEvents.processStudent();
+		t.sizeBudget = sizeGuard.student();
+		try {
+			action.accept(t, work);
+		} catch (TooBigException e) {
+			System.out.println("User " + t.getName() + ": delivery too big, aborted at " + e.getMessage());
+			t.fileInfo = FileInfo.tooBig;
+		} finally {
+			metrics.student(t.getName(), System.nanoTime() - start);
+			if (ev != null) {
+				ev.done(work instanceof Collection ? ((Collection<?>) work).size() : 1, t.fileInfo.name());
 			}
-			String fullIntermediateName = cd.helpDir + "\\" + intermediateFile;
-			File fullIntermediateNameFile = new File(fullIntermediateName);
-			
-		
-			String[] fileList = fullIntermediateNameFile.list(copyFilter);
-			for (String name: fileList) {
-				System.out.println("Filename: " + name);
-				String fullName = fullIntermediateName + "\\" + name;
-				File fullNameFile = new File(fullName);
-				if (fullNameFile.length() > cd.maxFileSize) {
-					System.out.println("User " + t.getName() + ": File too big:\n   " + fullName);
-					t.fileInfo = FileInfo.tooBig;
-					continue;
-				}
-			   if (isZipFile(fullName)) {
-					//String dirName = fullName.substring(0, fullName.length()-4).trim();
-					String dirName = fullName.substring(0, fullName.lastIndexOf('.')).trim();
-					unzipFile(fullName, dirName);
-					String destDir = cd.unzipDir + "\\" + t.subDir;
-					/*if (cd.fst == FileStructureType.singleDir) {
-						// Spezialsubdir fr diesen Unpack-Typ!!
-						destDir = cd.unzipDir + "\\kl" + cd.klasse + "\\" +
-							cd.unzipSubdir + "\\" + t.subDir;
-					}*/
-					if (cd.fst == FileStructureType.noDir) {
-						moveDirTreeDirect(dirName, cd , t);
-					} else if (cd.fst == FileStructureType.singleDir) {
-						new File(destDir).mkdirs();
-						moveDirTreeFlat(dirName, destDir);
-						updatePackage(destDir, cd.unzipDir);
-					} else if (cd.fst == FileStructureType.dirTree) {
-						new File(destDir).mkdirs();
-						moveDirTreeUnchanged(dirName, cd , t);
-						//System.out.println("dirTree " + t.name);
-					} else {
-						new File(destDir).mkdirs();
-						copySpecial(dirName, destDir+ "\\" + t.subDir);
-					}
-					t.fileInfo = FileInfo.fileOkay;
-			   } else {
-					String actDir = cd.unzipDir;
-					new File(actDir).mkdirs();
-					String extension = "";
-					int lastIndex = fullName.lastIndexOf('.');
-					if (lastIndex > 0) {
-						extension = fullName.substring(lastIndex);
-					}
-					if (cd.fst == FileStructureType.noDir) {
-						copySpecial(fullName, actDir+"\\" + t.subDir + extension);
-					} else if (cd.fst == FileStructureType.singleDir) {
-						new File(actDir + "\\" + t.subDir).mkdirs();
-						copySpecial(fullName, actDir + "\\" + t.subDir+ "\\" + t.subDir  + extension);
-						updatePackage(actDir + "\\" + t.subDir, cd.unzipDir);
-					} else if (cd.fst == FileStructureType.dirTree) {
-						new File(actDir + "\\" + t.subDir).mkdirs();
-						copySpecial(fullName, actDir + "\\" + t.subDir+ "\\" + t.subDir  + extension);
-					} else {
-						new File(actDir + "\\" + t.subDir).mkdirs();
-						copySpecial(fullName, actDir + "\\" + t.subDir+ "\\" + t.subDir  + extension);
-					}
-					t.fileInfo = FileInfo.fileOkay;
-				}
+			JfrEvents.setStudent(null);
+		}
+	}
+
+	/**
+	 * @param threads Anzahl der Threads, 0: ein virtueller Thread pro Task (wenn die JVM das
+	 * untersttzt, sonst ein Thread pro Prozessor).
+	 */
+	static ExecutorService newExecutor(int threads) {
+		if (threads <= 0) {
+			try {
+				return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			} catch (ReflectiveOperationException e) {
+				threads = Runtime.getRuntime().availableProcessors();
 			}
-			
-		} // end of intermediate file list examination
+		}
+		return Executors.newFixedThreadPool(threads);
 	}
 
 	/**
 	 * Ausfhren eines Unzip-Auftrages.
 	 */
 	public void execute() {
-		cd.update();
-		init(cd);
-		cd.print();
-		readNameFile(cd);
-		//u.cd.ignoreName(name)
-		cd.writeNames();
-		unzipMoodleFile(cd);
-		moveFiles(cd);
+		if (cd.progress) {
+			metrics.startProgress(2);
+		}
+		try {
+			metrics.time("init", () -> {
+				cd.update();
+				init(cd);
+			});
+			cd.print();
+			metrics.time("roster", () -> readNameFile(cd));
+			//u.cd.ignoreName(name)
+			cd.writeNames();
+			if (cd.streaming) {
+				metrics.time("layout", () -> moveFilesStream(cd));
+			} else {
+				if (cd.replayFile == null) {
+					metrics.time("extract", () -> unzipMoodleFile(cd));
+				}
+				LayoutPlan plan = metrics.time("plan", () -> layoutPlan(cd));
+				metrics.time("layout", () -> executePlan(cd, plan));
+			}
+			closeSink();
+		} finally {
+			metrics.stopProgress();
+		}
 		cd.writeNames();
+		System.out.println("unzipped: " + extractedEntries + " entries, " + extractedBytes + " bytes");
+		writeReport(cd);
+	}
+
+	/**
+	 * Schliet den OutputSink, erst dann ist das zip-File geschrieben. Bei mem werden vorher
+	 * die abgelegten Dateien ausgegeben.
+	 */
+	private void closeSink() {
+		try {
+			metrics.time("output", () -> {
+				if (cd.output == OutputSink.Kind.mem) {
+					try (Stream<Path> files = Files.walk(sink.root())) {
+						files.filter(Files::isRegularFile).forEach(f -> {
+							try {
+								System.out.println("   " + sink.root().relativize(f) + " (" + Files.size(f) + " bytes)");
+							} catch (IOException e) {
+								System.out.println("   " + sink.root().relativize(f));
+							}
+						});
+					}
+				}
+				sink.close();
+				if (cd.output != OutputSink.Kind.dir) {
+					System.out.println("output: " + sink);
+				}
+			});
+		} catch (IOException e) {
+			throw new UnzipException("Output \"" + sink + "\" could not be written!", e);
+		}
+	}
 
+	/**
+	 * Schreibt den Bericht mit Zeiten und Zhlern neben das unzipDir: <unzipDir>-report.json
+	 */
+	private void writeReport(ConfigurationData cd) {
+		Map<String, Integer> fileInfos = new TreeMap<String, Integer>();
+		for (StudentName sn: cd.studentList) {
+			fileInfos.merge(sn.fileInfo.name(), 1, Integer::sum);
+		}
+		Path report = Paths.get(cd.unzipDir + "-report.json");
+		try {
+			metrics.writeReport(report, cd.klasse, cd.unzipSubdir, fileInfos);
+			System.out.println("report: " + report);
+		} catch (IOException e) {
+			System.out.println("Report \"" + report + "\" could not be written: " + e);
+		}
 	}
 	
 	
@@ -917,6 +2745,9 @@ public class Unzipper {
 			"Parameters: \n" + 
 			"-h: Print this help output.\n" +
 			"-p: Print only parameters do not perform an unzip.\n" +
+			"-inv: Print an inventory instead of unzipping: per student the delivered files (and the entries\n" +
+			"   of delivered archives), their sizes, whether the filters take them, the expected status and\n" +
+			"   the target names. Only the central directories are read, nothing is written.\n" +
 			"-w <workingDir>: The basic working directory. All data are per default within this working \n" +
 			"   directory.\n" +
 			"-c <class>: The name of the corresponding class. Per default all data of a class are assumed to \n" + 
@@ -948,13 +2779,83 @@ public class Unzipper {
 			"   Per Default all but a few binary files (class, bin,...) are processed. If you give an extension list here, then \n" +
 			"   only files having such an extension are unpacked, other files are ignored\n" +
 			"   However the special meaning of the zip-file types cannot be changed.\n"+
-			"-7 <7zipDir>: The directory, where 7-zip is installed. 7-zip is used in the extraction process.\n" +
+			"-x <ExtensionList>: Extensions, which are never unpacked. Default is \"class exe bin dll ctxt bluej\",\n" +
+			"   an empty list (\"\") unpacks all files.\n" +
+			"-xg <NameList>: File names, which are never unpacked, '*' and '?' are wildcards (e.g. \"*.tmp ~$*\").\n" +
+			"-enc <charset>: Encoding of the Java files, whose package is changed (singleDir). Per default\n" +
+			"   the encoding is detected (BOM, UTF-8 or windows-1252) and preserved.\n" +
+			"-xs <bytes>: Files within deliveries, which are bigger, are not unpacked.\n" +
+			"-mf <bytes>: Delivered files and unpacked files, which are bigger, are skipped (student \"too big\").\n" +
+			"   Default is 50000000.\n" +
+			"-ms <bytes>: Limit for all unpacked files of a student, -mr <bytes>: limit for the whole run.\n" +
+			"   A student, whose delivery exceeds a limit, is aborted and reported as \"too big\". Default: no limit.\n" +
+			"-mx <ratio>: Limit for the compression ratio of archive entries (zip bombs), default is 200, -1: none.\n" +
+			"   All limits are checked against the sizes in the archive headers before unpacking and while\n" +
+			"   unpacking, so wrong headers are detected as well.\n" +
+			"-fz <score>: A delivery, which cannot be attached to a student, is compared with the names in\n" +
+			"   all name files (Klasse-*.txt) of the name directory (umlauts, double names, typos, other\n" +
+			"   class). It is attached to the most similar student, if the score (0..1) is at least this\n" +
+			"   value, default 0.8. Students of other classes are added to the list. Above 1: never attach.\n" +
+			"-7 <7zipDir>: The directory, where 7-zip is installed. zip, jar, war and ear files are unpacked\n" +
+			"   directly, 7-zip is used for all other archives (rar, 7z,...).\n" +
+			"-z: Use 7-zip for all archives, also for zip, jar, war and ear files.\n" +
+			"-i: Incremental mode (implies -s): the task directory is kept and only students, whose deliveries\n" +
+			"   have changed since the last run (see the manifest file in the task directory), are processed.\n" +
+			"-out <dir|zip|mem>: Where the task directory is written (implies -s for zip and mem):\n" +
+			"   dir: the task directory (default).\n" +
+			"   zip: a single zip file <taskDir>-out.zip, no task directory is created. Cheap on network shares\n" +
+			"      and ready to be archived or handed on. The content is kept in memory until it is written.\n" +
+			"   mem: in memory only, the files are listed at the end (preview, tests).\n" +
+			"-watch: Keep running and unzip every new or changed <taskname>.zip in the class directory (with\n" +
+			"   -f in the subject directory) incrementally, as soon as the download is complete. Without -c\n" +
+			"   the directories of all classes (Klasse-*) in the working directory are watched.\n" +
+			"-daemon <port>: Keep running and execute the jobs sent by -client one after the other, without\n" +
+			"   starting a JVM per job. Only connections from this computer are accepted, which send the\n" +
+			"   token of the daemon from <home>/.moodleUnzipper-daemon-<port> (readable by its owner only). The\n" +
+			"   other parameters are used for all jobs, name files and threads are reused between jobs.\n" +
+			"-client <port> <parameters>: Must be the first parameter. Sends a job with the parameters to the\n" +
+			"   daemon and prints its output. \"-client <port> -stop\" stops the daemon.\n" +
+			"-progress: Print the number of files and bytes written and the current rates every 2 seconds.\n" +
+			"   Independent of this option, a report with the times of the phases and per student, the\n" +
+			"   counters and the rates is written to <taskDir>-report.json at the end of a run.\n" +
+			"-jfr <file>: Record the run with the Java Flight Recorder (JDK default settings) including events\n" +
+			"   for unzipping, copying, renaming, deleting, package rewriting and each student.\n" +
+			"-dedup: Files with the same content (e.g. templates or libraries) are stored only once, all\n" +
+			"   other copies are hard links to it (if the file system supports them). Note that editing one\n" +
+			"   of these files changes all of them.\n" +
+			"-na: Do not preserve the last modified time and attributes when copying files.\n" +
+			"-bd: Rename the old help and task directories aside and delete them in the background, while the\n" +
+			"   new run already continues.\n" +
+			"-j <n>: Process the deliveries of up to n students in parallel. Default is 1 (sequential).\n" +
+			"   \"-j v\" uses a virtual thread per student, if the Java runtime supports it.\n" +
+			"-pipe <read>,<rewrite>,<write>[,<queue>]: Streaming (-s) as a pipeline of stages with their own\n" +
+			"   threads: decompressing into memory, rewriting the Java files (singleDir) in memory and \n" +
+			"   writing. Each writer has a queue of up to <queue> files (default 32), a full queue stops the\n" +
+			"   other stages. 0 threads: a virtual thread per file. Example: -pipe 4,2,2\n" +
+			"-d <depth>: Maximum nesting depth for archives within delivered archives. zip, jar, war and ear \n" +
+			"   files are unzipped directly from the enclosing archive, without an intermediate directory. \n" +
+			"   Default is 1, i.e. only the delivered archives are unzipped.\n" +
+			"-b <jobFile>: Batch mode: runs several jobs in one go. Each line of the job file contains a job:\n" +
+			"   class;task;type;extensions;subject (only class and task are required, lines starting with * are\n" +
+			"   comments). All other parameters apply to every job. Jobs, whose directories do not overlap, run\n" +
+			"   in parallel (their output is interleaved), a summary of all jobs is printed at the end.\n" +
+			"-s: Streaming mode: the moodle file is read once and each delivery is written directly to the task\n" +
+			"   directory, no help directory is used.\n" +
+			"-plan <file>: Without streaming, the layout of all deliveries (all target names and directories)\n" +
+			"   is planned before anything is written, then the directories are created in one go and the\n" +
+			"   files are written. The plan is also written to this text file (for debugging).\n" +
+			"-replay <file>: Execute a plan written by -plan again, with the files in the help directory of\n" +
+			"   that run. The moodle file is not unzipped again.\n" +
 			" ");
 		
 	}
 	
 	public static void inputError(String message) {
 		System.out.println("\nERROR in input parameters:\n   " + message);
+		if (resident) {
+			// ein fehlerhafter Auftrag darf den Daemon nicht beenden
+			throw new UnzipException(message);
+		}
 		help();
 		System.exit(1);
 	}
@@ -964,29 +2865,245 @@ public class Unzipper {
 	 * @param args The parameters according to the help method.
 	 */
 	public static void mainNew(String[] args) {
-		Unzipper u = new Unzipper();
-		boolean printOnly = false;
-		String klasse = null;
-		String subject = null;
-		String workingDir = null;
-		
 		if (args == null || args.length == 0) {
 			help();
 			return;
 		}
+		if (args[0].equalsIgnoreCase("-client")) {
+			runClient(args);
+			return;
+		}
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equalsIgnoreCase("-daemon")) {
+				runDaemon(args, i);
+				return;
+			}
+		}
+		Unzipper u = parse(args);
+		if (u == null) {
+			return;
+		}
+		start(args, u);
+	}
+
+	/**
+	 * Ausfhren eines Auftrages, mit -jfr whrend einer Flight Recorder Aufzeichnung.
+	 */
+	private static void start(String[] args, Unzipper u) {
+		if (u.jfrFile != null && !u.printOnly) {
+			Recording r;
+			try {
+				r = JfrEvents.start(Paths.get(u.jfrFile));
+			} catch (IOException e) {
+				inputError("JFR recording \"" + u.jfrFile + "\" could not be started: " + e.getMessage());
+				return;
+			}
+			try {
+				run(args, u);
+			} finally {
+				JfrEvents.stop(r);
+				System.out.println("JFR recording: " + u.jfrFile);
+			}
+			return;
+		}
+		run(args, u);
+	}
+
+	/**
+	 * Daemon-Betrieb (-daemon <port>): Nimmt Auftrge von -client ber einen Socket auf
+	 * localhost an und fhrt sie der Reihe nach in dieser JVM aus, die Ausgaben gehen an den
+	 * Client. Nur ein Client mit dem Token aus JobServer.tokenFile wird angenommen. Die 
+	 * brigen Parameter gelten fr alle Auftrge. Namensfiles, Filter und Threads werden
+	 * zwischen den Auftrgen wiederverwendet (siehe cd.rosters, cd.matchers, cd.executor).
+	 * @param i Index von -daemon in args
+	 */
+	private static void runDaemon(String[] args, int i) {
+		int port = 0;
+		try {
+			port = Integer.parseInt(args[i + 1]);
+		} catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+			inputError("Invalid value for option -daemon");
+		}
+		List<String> common = new ArrayList<String>(Arrays.asList(args));
+		common.subList(i, i + 2).clear();
+		Map<String, List<String>> rosters = new ConcurrentHashMap<String, List<String>>();
+		Map<String, FileMatcher> matchers = new ConcurrentHashMap<String, FileMatcher>();
+		ExecutorService workers = newExecutor(Runtime.getRuntime().availableProcessors());
+		resident = true;
+		try {
+			new JobServer(port, jobArgs -> {
+				List<String> all = new ArrayList<String>(common);
+				Collections.addAll(all, jobArgs);
+				String[] a = all.toArray(new String[all.size()]);
+				Unzipper u = parse(a);
+				if (u == null) {
+					return;
+				}
+				if (u.watch) {
+					throw new UnzipException("-watch is not possible in a daemon job");
+				}
+				u.cd.rosters = rosters;
+				u.cd.matchers = matchers;
+				u.cd.executor = workers;
+				start(a, u);
+			}).serve();
+		} catch (IOException e) {
+			throw new UnzipException("Daemon on port " + port + " failed!", e);
+		} finally {
+			resident = false;
+			workers.shutdown();
+		}
+	}
+
+	/**
+	 * Client fr den Daemon: -client <port> <Parameter des Auftrages> bzw. -client <port> -stop
+	 */
+	private static void runClient(String[] args) {
+		int port = 0;
+		try {
+			port = Integer.parseInt(args[1]);
+		} catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+			inputError("Invalid value for option -client");
+		}
+		try {
+			if (!JobServer.submit(port, Arrays.copyOfRange(args, 2, args.length))) {
+				System.exit(1);
+			}
+		} catch (IOException e) {
+			System.out.println("No daemon on port " + port + ": " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	private static void run(String[] args, Unzipper u) {
+		if (u.watch) {
+			runWatch(args, u);
+			return;
+		}
+		if (u.jobFile != null) {
+			runBatch(args, u);
+			return;
+		}
+		if (u.inventoryOnly) {
+			u.inventory(u.cd);
+			return;
+		}
+		if (u.printOnly) {
+			// print only parameters
+			u.cd.update();
+			u.init(u.cd);
+			u.cd.print();
+			return;
+		} 
+		
+		u.execute();
+	}
+
+	/**
+	 * Liest die Parameter in einen neuen Unzipper.
+	 * @return null, wenn nur die Hilfe ausgegeben wurde
+	 */
+	private static Unzipper parse(String[] args) {
+		Unzipper u = new Unzipper();
+		String klasse = null;
+		String subject = null;
+		String workingDir = null;
 		
 		int index = 0;
 		while (index <args.length) {
 			switch (args[index].toLowerCase()) {
 			case "-h":
 				help();
-				return;
+				return null;
 			case "-p":
-				printOnly = true;
+				u.printOnly = true;
+				break;
+			case "-inv": // nur Inventar aus dem Central Directory
+				u.inventoryOnly = true;
+				break;
+			case "-jfr": // Java Flight Recorder Aufzeichnung
+				u.jfrFile = args[++index];
+				break;
+			case "-b": // Batch: Jobfile mit mehreren Auftrgen
+				u.jobFile = args[++index];
+				break;
+			case "-watch": // neue Downloads automatisch entpacken
+				u.watch = true;
 				break;
 			case "-7": // 7-zip working directory.
 				u.cd.dir7zip = args[++index];
 				break;
+			case "-s": // streaming, ohne Hilfsdirectory
+				u.cd.streaming = true;
+				break;
+			case "-d": // Schachtelungstiefe fr Archive in Archiven
+				try {
+					u.cd.maxNestingDepth = Integer.parseInt(args[++index]);
+				} catch (NumberFormatException e) {
+					inputError("Invalid value for option -d");
+				}
+				break;
+			case "-j": // Anzahl der Threads, v fr virtuelle Threads
+				String j = args[++index];
+				try {
+					u.cd.threads = j.equalsIgnoreCase("v") ? 0 : Integer.parseInt(j);
+				} catch (NumberFormatException e) {
+					inputError("Invalid value for option -j");
+				}
+				if (u.cd.threads < 0) {
+					inputError("Invalid value for option -j");
+				}
+				break;
+			case "-pipe": // Stufen mit eigenen Threads, nur mit streaming
+				String[] stages = args[++index].split(",");
+				try {
+					u.cd.pipeline = new int[] {2, 1, 1, 32};
+					if (stages.length < 3 || stages.length > 4) {
+						inputError("Invalid value for option -pipe");
+					}
+					for (int k = 0; k < stages.length; k++) {
+						u.cd.pipeline[k] = Integer.parseInt(stages[k].trim());
+						if (u.cd.pipeline[k] < (k == 2 || k == 3 ? 1 : 0)) {
+							inputError("Invalid value for option -pipe");
+						}
+					}
+				} catch (NumberFormatException e) {
+					inputError("Invalid value for option -pipe");
+				}
+				u.cd.streaming = true;
+				break;
+			case "-plan": // Plan der Ablage in eine Datei schreiben
+				u.cd.planFile = args[++index];
+				break;
+			case "-replay": // Plan der Ablage aus einer Datei ausfhren
+				u.cd.replayFile = args[++index];
+				break;
+			case "-na": // Attribute beim Kopieren nicht bernehmen
+				u.cd.preserveAttributes = false;
+				break;
+			case "-bd": // im Hintergrund lschen
+				u.cd.deleteInBackground = true;
+				break;
+			case "-progress": // Fortschritt ausgeben
+				u.cd.progress = true;
+				break;
+			case "-dedup": // gleiche Dateien als Hard Links
+				u.cd.dedup = true;
+				break;
+			case "-out": // Ziel der Ablage
+				try {
+					u.cd.output = OutputSink.Kind.valueOf(args[++index]);
+				} catch (IllegalArgumentException e) {
+					inputError("Invalid value for option -out");
+				}
+				break;
+			case "-i": // inkrementell, nur mit streaming
+				u.cd.incremental = true;
+				u.cd.streaming = true;
+				break;
+			case "-z": // alle Archive mit 7-zip entpacken
+				u.cd.use7zipOnly = true;
+				break;
 			case "-w": // working directory
 				workingDir = args[++index];
 				break;
@@ -1029,6 +3146,61 @@ public class Unzipper {
 			case "-e":
 				u.cd.suffixList = args[++index].toLowerCase().split(" +");
 				break;
+			case "-x": // ausgeschlossene Extensions
+				u.cd.excludeList = args[++index].trim().toLowerCase().split(" +");
+				break;
+			case "-xg": // ausgeschlossene Dateinamen
+				u.cd.excludeGlobs = args[++index].trim().split(" +");
+				break;
+			case "-xs": // maximale Gre einer Datei innerhalb einer Abgabe
+				try {
+					u.cd.maxEntrySize = Long.parseLong(args[++index]);
+				} catch (NumberFormatException e) {
+					inputError("Invalid value for option -xs");
+				}
+				break;
+			case "-mf": // maximale Gre einer abgegebenen Datei
+				try {
+					u.cd.maxFileSize = Integer.parseInt(args[++index]);
+				} catch (NumberFormatException e) {
+					inputError("Invalid value for option -mf");
+				}
+				break;
+			case "-ms": // maximale Gre aller Dateien eines Schlers
+				try {
+					u.cd.maxStudentSize = Long.parseLong(args[++index]);
+				} catch (NumberFormatException e) {
+					inputError("Invalid value for option -ms");
+				}
+				break;
+			case "-mr": // maximale Gre aller Dateien des Laufes
+				try {
+					u.cd.maxRunSize = Long.parseLong(args[++index]);
+				} catch (NumberFormatException e) {
+					inputError("Invalid value for option -mr");
+				}
+				break;
+			case "-fz": // Schwelle fr die unscharfe Zuordnung
+				try {
+					u.cd.fuzzyThreshold = Double.parseDouble(args[++index]);
+				} catch (NumberFormatException e) {
+					inputError("Invalid value for option -fz");
+				}
+				break;
+			case "-mx": // maximales Kompressionsverhltnis
+				try {
+					u.cd.maxRatio = Integer.parseInt(args[++index]);
+				} catch (NumberFormatException e) {
+					inputError("Invalid value for option -mx");
+				}
+				break;
+			case "-enc": // Encoding der Java Files
+				try {
+					u.cd.sourceEncoding = Charset.forName(args[++index]);
+				} catch (IllegalArgumentException e) {
+					inputError("Invalid value for option -enc");
+				}
+				break;
 			case "-nf":
 				u.cd.nameFile = args[++index];
 				break;
@@ -1039,29 +3211,267 @@ public class Unzipper {
 			index ++;
 		}
 		
+		if (u.cd.output != OutputSink.Kind.dir) {
+			// ohne Directory gibt es kein Manifest und keine Hard Links
+			if (u.cd.incremental || u.cd.dedup || u.cd.pipeline != null) {
+				inputError("Options -i, -dedup and -pipe need -out dir");
+			}
+			u.cd.streaming = true;
+			// das zip-Filesystem vertrgt keine parallelen nderungen der Directories
+			u.cd.threads = 1;
+		}
+		if ((u.cd.planFile != null || u.cd.replayFile != null) && u.cd.streaming) {
+			inputError("Options -plan and -replay need the help directory, not streaming (-s, -i, -pipe, -out)");
+		}
 		if (workingDir == null) {
 			inputError("Option -w missing!");
 		}
 		if (klasse == null) {
+			if (u.jobFile != null) {
+				// Klasse und Aufgabe kommen aus dem Jobfile
+				return u;
+			}
+			if (u.watch) {
+				// alle Klassen unter dem workingDir berwachen
+				u.cd.unzipDirBase = workingDir;
+				return u;
+			}
 			inputError("Option -c missing!");
 		}
-		u.cd.unzipDirBase = workingDir + "\\Klasse-" + klasse;
+		u.cd.unzipDirBase = workingDir + File.separator + "Klasse-" + klasse;
 		if (subject != null) {
-			u.cd.unzipDirBase = u.cd.unzipDirBase + "\\" + subject;
+			u.cd.unzipDirBase = u.cd.unzipDirBase + File.separator + subject;
 		}
 		if (u.cd.nameFile == null) {
 			u.cd.nameFile = "Klasse-" + klasse + ".txt";
 		}
-		
-		if (printOnly) {
-			// print only parameters
-			u.cd.update();
-			u.init(u.cd);
-			u.cd.print();
-			return;
-		} 
-		
-		u.execute();
+		return u;
+	}
+
+	/**
+	 * Ein Auftrag im Batch-Betrieb.
+	 */
+	private static class Job {
+		int line;
+		Unzipper unzipper;
+		// Auftrge davor, deren Directories sich mit diesem berschneiden
+		List<CompletableFuture<Void>> before = new ArrayList<CompletableFuture<Void>>();
+		String result = "not started";
+	}
+
+	/**
+	 * Batch-Betrieb (-b): Das Jobfile enthlt einen Auftrag pro Zeile, die Felder sind wie im 
+	 * Namensfile durch Strichpunkte getrennt: Klasse;Aufgabe;Art des Entpackens;Extensions;Fach.
+	 * Nur Klasse und Aufgabe sind notwendig, fr die anderen Felder gelten die brigen Parameter.
+	 * Zeilen mit * am Anfang sind Kommentare. Die Auftrge teilen sich die Namensfiles und die Threads 
+	 * fr die Schler. Auftrge, deren Directories sich nicht berschneiden, laufen parallel.
+	 * @param args die Parameter, gelten fr alle Auftrge
+	 * @param options die Parameter ohne Auftrag
+	 */
+	private static void runBatch(String[] args, Unzipper options) {
+		List<String> common = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equalsIgnoreCase("-b")) {
+				i++;
+			} else {
+				common.add(args[i]);
+			}
+		}
+		List<String> lines = null;
+		try {
+			lines = Files.readAllLines(Paths.get(options.jobFile), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			inputError("Job file \"" + options.jobFile + "\" could not be read: " + e.getMessage());
+		}
+		Map<String, List<String>> rosters = new ConcurrentHashMap<String, List<String>>();
+		Map<String, FileMatcher> matchers = new ConcurrentHashMap<String, FileMatcher>();
+		ExecutorService workers = options.cd.threads == 1 ? null : newExecutor(options.cd.threads);
+		List<Job> jobs = new ArrayList<Job>();
+		for (int n = 0; n < lines.size(); n++) {
+			String line = lines.get(n).trim();
+			if (line.length() == 0 || line.startsWith("*")) {
+				continue;
+			}
+			String[] token = line.split(";");
+			for (int i=0;i<token.length;i++) 
+				token[i] = token[i].trim();
+			if (token.length < 2 || token[0].length() == 0 || token[1].length() == 0) {
+				inputError("Job file line " + (n+1) + ": class and task missing");
+			}
+			List<String> jobArgs = new ArrayList<String>(common);
+			Collections.addAll(jobArgs, "-c", token[0], "-a", token[1]);
+			if (token.length > 2 && token[2].length() > 0) {
+				Collections.addAll(jobArgs, "-t", token[2]);
+			}
+			if (token.length > 3 && token[3].length() > 0) {
+				Collections.addAll(jobArgs, "-e", token[3]);
+			}
+			if (token.length > 4 && token[4].length() > 0) {
+				Collections.addAll(jobArgs, "-f", token[4]);
+			}
+			Job job = new Job();
+			job.line = n+1;
+			job.unzipper = parse(jobArgs.toArray(new String[jobArgs.size()]));
+			job.unzipper.cd.rosters = rosters;
+			job.unzipper.cd.matchers = matchers;
+			job.unzipper.cd.executor = workers;
+			job.unzipper.cd.update();
+			jobs.add(job);
+		}
+		System.out.println("Batch: " + jobs.size() + " jobs from \"" + options.jobFile + "\"");
+		ExecutorService jobThreads = Executors.newFixedThreadPool(
+			Math.max(1, Math.min(jobs.size(), Runtime.getRuntime().availableProcessors())));
+		List<CompletableFuture<Void>> started = new ArrayList<CompletableFuture<Void>>();
+		try {
+			for (Job job: jobs) {
+				for (int i = 0; i < started.size(); i++) {
+					if (overlaps(jobs.get(i).unzipper.cd, job.unzipper.cd)) {
+						job.before.add(started.get(i));
+					}
+				}
+				started.add(CompletableFuture.allOf(job.before.toArray(new CompletableFuture<?>[0]))
+					.handle((v, e) -> null)
+					.thenRunAsync(() -> runJob(job), jobThreads));
+			}
+			CompletableFuture.allOf(started.toArray(new CompletableFuture<?>[0])).join();
+		} finally {
+			jobThreads.shutdown();
+			if (workers != null) {
+				workers.shutdown();
+			}
+		}
+		System.out.println("\nBatch summary:");
+		for (Job job: jobs) {
+			ConfigurationData cd = job.unzipper.cd;
+			System.out.println("   " + job.line + ": " + cd.klasse + " " + cd.unzipSubdir + ": " + job.result);
+		}
+	}
+
+	private static void runJob(Job job) {
+		Unzipper u = job.unzipper;
+		long start = System.currentTimeMillis();
+		try {
+			u.execute();
+			job.result = u.cd.counts() + ",   unzipped: " + u.extractedEntries + " entries, " + 
+				u.extractedBytes + " bytes, " + (System.currentTimeMillis() - start) + " ms";
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			job.result = "failed: " + e.getMessage();
+		}
+	}
+
+	/**
+	 * Watch-Betrieb (-watch): berwacht das Directory der Klasse (mit -f das des Fachs), ohne -c
+	 * die Directories aller Klassen (Klasse-*) im workingDir, und entpackt jedes neue oder 
+	 * genderte <Aufgabe>.zip inkrementell (-i, bei -out zip oder mem vollstndig). Ein Download
+	 * wird erst entpackt, wenn er sich einige Sekunden nicht mehr gendert hat und vollstndig
+	 * ist (siehe DownloadWatcher). Luft bis zum Abbruch mit Ctrl-C.
+	 * @param args die Parameter, gelten fr alle Auftrge
+	 * @param options die Parameter ohne Aufgabe
+	 */
+	private static void runWatch(String[] args, Unzipper options) {
+		List<String> common = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i].toLowerCase()) {
+			case "-c":
+			case "-a":
+			case "-f":
+				i++;
+				break;
+			case "-watch":
+			case "-i":
+				break;
+			default:
+				common.add(args[i]);
+				break;
+			}
+		}
+		if (options.cd.output == OutputSink.Kind.dir) {
+			common.add("-i");
+		}
+		List<Path> dirs = new ArrayList<Path>();
+		Path base = Paths.get(options.cd.unzipDirBase);
+		if (options.cd.klasse != null) {
+			dirs.add(base);
+		} else {
+			try (DirectoryStream<Path> ds = Files.newDirectoryStream(base, "Klasse-*")) {
+				for (Path dir: ds) {
+					if (Files.isDirectory(dir)) {
+						dirs.add(dir);
+					}
+				}
+			} catch (IOException e) {
+				inputError("Working directory \"" + base + "\" could not be listed: " + e.getMessage());
+			}
+		}
+		ExecutorService workers = options.cd.threads == 1 ? null : newExecutor(options.cd.threads);
+		try {
+			DownloadWatcher watcher = new DownloadWatcher(WATCH_QUIET_MILLIS, p -> {
+				String name = p.getFileName().toString().toLowerCase();
+				// <Aufgabe>-out.zip schreibt -out zip selbst
+				return name.endsWith(".zip") && !name.endsWith("-out.zip");
+			});
+			for (Path dir: dirs) {
+				watcher.register(dir);
+				System.out.println("Watching \"" + dir + "\"");
+			}
+			watcher.run(zip -> runDownload(common, zip, workers));
+		} catch (IOException e) {
+			throw new UnzipException("Watching failed!", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			if (workers != null) {
+				workers.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Entpackt einen neuen Download im Watch-Betrieb. Klasse, Fach und Aufgabe kommen aus dem
+	 * Pfad: <workingDir>\Klasse-<Klasse>[\<Fach>]\<Aufgabe>.zip
+	 */
+	private static void runDownload(List<String> common, Path zip, ExecutorService workers) {
+		Path dir = zip.getParent();
+		String fileName = zip.getFileName().toString();
+		String task = fileName.substring(0, fileName.length() - ".zip".length());
+		List<String> jobArgs = new ArrayList<String>(common);
+		String dirName = dir.getFileName().toString();
+		if (dirName.startsWith("Klasse-")) {
+			Collections.addAll(jobArgs, "-c", dirName.substring("Klasse-".length()), "-a", task);
+		} else {
+			String klasse = dir.getParent().getFileName().toString().substring("Klasse-".length());
+			Collections.addAll(jobArgs, "-c", klasse, "-f", dirName, "-a", task);
+		}
+		System.out.println("\nNew download \"" + zip + "\"");
+		Unzipper u = parse(jobArgs.toArray(new String[jobArgs.size()]));
+		u.cd.executor = workers;
+		long start = System.currentTimeMillis();
+		try {
+			u.execute();
+			System.out.println("Done \"" + zip + "\": " + u.cd.counts() + ", " + 
+				(System.currentTimeMillis() - start) + " ms");
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			System.out.println("Failed \"" + zip + "\": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Zwei Auftrge drfen nicht parallel laufen, wenn einer in die Directories des anderen
+	 * schreibt oder sie lscht.
+	 */
+	private static boolean overlaps(ConfigurationData a, ConfigurationData b) {
+		for (String da: new String[] {a.unzipDir, a.helpDir}) {
+			for (String db: new String[] {b.unzipDir, b.helpDir}) {
+				Path pa = Paths.get(da).toAbsolutePath().normalize();
+				Path pb = Paths.get(db).toAbsolutePath().normalize();
+				if (pa.startsWith(pb) || pb.startsWith(pa)) {
+					return true;
+				}
+			}
+		}
+		return false;
 	}
 	
 	static String[] createInput() {
@@ -1114,7 +3524,10 @@ public class Unzipper {
 	
 	public static void main(String[] args) {
 		//mainOld(null);
-		args = createInput();
+		// ohne Argumente (Start aus der IDE) die fest eingetragenen Optionen
+		if (args.length == 0) {
+			args = createInput();
+		}
 		mainNew(args);
 	}
 
@@ -0,0 +1,262 @@
+package moodleHelp;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * The central directory of a zip archive, read by random access without touching
+ * the data of the entries (option -inv). An archive stored (not compressed) in
+ * another archive is read the same way: its local header tells where its data,
+ * i.e. the nested archive, starts in the file. Zip64 archives and data in front of
+ * the archive (e.g. a self-extracting stub) are supported.
+ */
+class ZipDirectory {
+	static final int STORED = 0;
+	static final int DEFLATED = 8;
+
+	private static final int LOCAL_HEADER = 0x04034b50;
+	private static final int CENTRAL_HEADER = 0x02014b50;
+	private static final int END = 0x06054b50;
+	private static final int ZIP64_LOCATOR = 0x07064b50;
+	private static final int ZIP64_END = 0x06064b50;
+	private static final int END_SIZE = 22;
+	private static final long MASK32 = 0xffffffffL;
+
+	/**
+	 * An entry as described in the central directory.
+	 */
+	static class Entry {
+		final String name;
+		final int method;
+		final long size;
+		final long compressedSize;
+		// position of the local header in the file
+		final long localHeader;
+
+		Entry(String name, int method, long size, long compressedSize, long localHeader) {
+			this.name = name;
+			this.method = method;
+			this.size = size;
+			this.compressedSize = compressedSize;
+			this.localHeader = localHeader;
+		}
+
+		boolean isDirectory() {
+			return name.endsWith("/");
+		}
+	}
+
+	private final FileChannel ch;
+	final List<Entry> entries = new ArrayList<Entry>();
+
+	private ZipDirectory(FileChannel ch) {
+		this.ch = ch;
+	}
+
+	/**
+	 * Reads the central directory of the archive file.
+	 * @param charset for names without the UTF-8 flag
+	 */
+	static ZipDirectory read(FileChannel ch, Charset charset) throws IOException {
+		return read(ch, 0, ch.size(), charset);
+	}
+
+	/**
+	 * The directory of an archive stored in this one.
+	 */
+	ZipDirectory nested(Entry e, Charset charset) throws IOException {
+		if (e.method != STORED) {
+			throw new ZipException("\"" + e.name + "\" is compressed");
+		}
+		return read(ch, dataStart(e), e.compressedSize, charset);
+	}
+
+	/**
+	 * The data of an entry, inflated if it is deflated. Reads from the file at the
+	 * position of the entry, the stream needs no close.
+	 */
+	InputStream open(Entry e) throws IOException {
+		InputStream in = new RegionInputStream(ch, dataStart(e), e.compressedSize);
+		switch (e.method) {
+		case STORED:
+			return in;
+		case DEFLATED:
+			return new InflaterInputStream(in, new Inflater(true)) {
+				private boolean eof = false;
+
+				@Override
+				protected void fill() throws IOException {
+					if (eof) {
+						throw new EOFException("Unexpected end of \"" + e.name + "\"");
+					}
+					len = in.read(buf, 0, buf.length);
+					if (len == -1) {
+						// the inflater may need one byte more than the compressed data (see ZipFile)
+						buf[0] = 0;
+						len = 1;
+						eof = true;
+					}
+					inf.setInput(buf, 0, len);
+				}
+			};
+		default:
+			throw new ZipException("\"" + e.name + "\": unsupported compression method " + e.method);
+		}
+	}
+
+	private long dataStart(Entry e) throws IOException {
+		ByteBuffer h = read(ch, e.localHeader, 30);
+		if (h.getInt(0) != LOCAL_HEADER) {
+			throw new ZipException("\"" + e.name + "\": no local header");
+		}
+		return e.localHeader + 30 + (h.getShort(26) & 0xffff) + (h.getShort(28) & 0xffff);
+	}
+
+	/**
+	 * Reads the directory of the archive in the region [start, start + length) of the file.
+	 */
+	private static ZipDirectory read(FileChannel ch, long start, long length, Charset charset) throws IOException {
+		int tail = (int) Math.min(length, END_SIZE + 0xffff);
+		if (tail < END_SIZE) {
+			throw new ZipException("no zip file");
+		}
+		ByteBuffer b = read(ch, start + length - tail, tail);
+		int end = -1;
+		for (int i = tail - END_SIZE; i >= 0; i--) {
+			if (b.getInt(i) == END) {
+				end = i;
+				break;
+			}
+		}
+		if (end < 0) {
+			throw new ZipException("no zip file (end of central directory not found)");
+		}
+		long endPos = start + length - tail + end;
+		long count = b.getShort(end + 10) & 0xffff;
+		long cdSize = b.getInt(end + 12) & MASK32;
+		long cdOffset = b.getInt(end + 16) & MASK32;
+		long cdEnd = endPos;
+		if ((count == 0xffff || cdSize == MASK32 || cdOffset == MASK32) && end >= 20 &&
+			b.getInt(end - 20) == ZIP64_LOCATOR) {
+			// the record is in front of the locator, its recorded offset misses data in front of
+			// the archive; the offset is only needed for a record with extensible data
+			long z64 = endPos - 20 - 56;
+			ByteBuffer z = z64 >= start ? read(ch, z64, 56) : null;
+			if (z == null || z.getInt(0) != ZIP64_END) {
+				z64 = start + b.getLong(end - 12);
+				z = read(ch, z64, 56);
+			}
+			if (z.getInt(0) != ZIP64_END) {
+				throw new ZipException("zip64 end of central directory not found");
+			}
+			count = z.getLong(32);
+			cdSize = z.getLong(40);
+			cdOffset = z.getLong(48);
+			cdEnd = z64;
+		}
+		// offsets are relative to the start of the archive, data in front of it shifts them
+		long shift = cdEnd - cdSize - (start + cdOffset);
+		if (cdSize > Integer.MAX_VALUE || cdEnd - cdSize < start) {
+			throw new ZipException("invalid central directory");
+		}
+		ByteBuffer cd = read(ch, cdEnd - cdSize, (int) cdSize);
+		ZipDirectory dir = new ZipDirectory(ch);
+		int p = 0;
+		for (long i = 0; i < count; i++) {
+			if (p + 46 > cd.limit() || cd.getInt(p) != CENTRAL_HEADER) {
+				throw new ZipException("invalid central directory entry " + i);
+			}
+			int flags = cd.getShort(p + 8) & 0xffff;
+			int method = cd.getShort(p + 10) & 0xffff;
+			long compressed = cd.getInt(p + 20) & MASK32;
+			long size = cd.getInt(p + 24) & MASK32;
+			int nameLen = cd.getShort(p + 28) & 0xffff;
+			int extraLen = cd.getShort(p + 30) & 0xffff;
+			int commentLen = cd.getShort(p + 32) & 0xffff;
+			long offset = cd.getInt(p + 42) & MASK32;
+			byte[] n = new byte[nameLen];
+			cd.position(p + 46);
+			cd.get(n);
+			String name = new String(n, (flags & 0x800) != 0 ? StandardCharsets.UTF_8 : charset);
+			// zip64 extra field: only the values, which do not fit into 32 bit, in this order
+			int x = p + 46 + nameLen;
+			while (x + 4 <= p + 46 + nameLen + extraLen) {
+				int id = cd.getShort(x) & 0xffff;
+				int len = cd.getShort(x + 2) & 0xffff;
+				if (id == 1) {
+					int v = x + 4;
+					if (size == MASK32 && v + 8 <= x + 4 + len) {
+						size = cd.getLong(v);
+						v += 8;
+					}
+					if (compressed == MASK32 && v + 8 <= x + 4 + len) {
+						compressed = cd.getLong(v);
+						v += 8;
+					}
+					if (offset == MASK32 && v + 8 <= x + 4 + len) {
+						offset = cd.getLong(v);
+					}
+				}
+				x += 4 + len;
+			}
+			dir.entries.add(new Entry(name, method, size, compressed, start + offset + shift));
+			p += 46 + nameLen + extraLen + commentLen;
+		}
+		return dir;
+	}
+
+	private static ByteBuffer read(FileChannel ch, long pos, int len) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+		while (b.hasRemaining()) {
+			if (ch.read(b, pos + b.position()) < 0) {
+				throw new EOFException("zip file truncated");
+			}
+		}
+		b.flip();
+		return b;
+	}
+
+	/**
+	 * A region of the file, read with positional reads.
+	 */
+	private static class RegionInputStream extends InputStream {
+		private final FileChannel ch;
+		private long pos;
+		private final long end;
+
+		RegionInputStream(FileChannel ch, long start, long length) {
+			this.ch = ch;
+			pos = start;
+			end = start + length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (pos >= end) {
+				return -1;
+			}
+			int n = ch.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - pos)), pos);
+			if (n > 0) {
+				pos += n;
+			}
+			return n;
+		}
+	}
+}
@@ -0,0 +1,196 @@
+package moodleHelp;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * Unzips zip, jar, war and ear archives in process with java.util.zip, so no
+ * external 7-zip process is needed for them. Other archive types (rar, 7z) are
+ * still handled by 7-zip, see Unzipper.unzipFile.
+ */
+class ZipExtractor {
+
+	/**
+	 * Number of entries and bytes written by one extraction.
+	 */
+	static class Result {
+		int entries;
+		long bytes;
+		// entries not unzipped because of a size limit, see SizeGuard
+		List<String> tooBig = new ArrayList<String>();
+
+		@Override
+		public String toString() {
+			return entries + " entries, " + bytes + " bytes";
+		}
+	}
+
+	/**
+	 * Charset used, if the entry names of an archive are not valid UTF-8.
+	 * Windows tools (and 7-zip) write the names in the OEM codepage.
+	 */
+	static final Charset FALLBACK_CHARSET = Charset.forName("IBM437");
+
+	private final BufferPool pool;
+	// null: no size limits
+	private final SizeGuard guard;
+
+	ZipExtractor(BufferPool pool, SizeGuard guard) {
+		this.pool = pool;
+		this.guard = guard;
+	}
+
+	ZipExtractor() {
+		this(BufferPool.shared(), null);
+	}
+
+	/**
+	 * Determines, if an archive can be unzipped without 7-zip.
+	 * @param name file name, case does not matter
+	 * @return
+	 */
+	static boolean canExtract(String name) {
+		String n = name.toLowerCase();
+		return n.endsWith(".zip") || n.endsWith(".jar") || n.endsWith(".war") || n.endsWith(".ear");
+	}
+
+	/**
+	 * Unzips the archive into destDir. Existing files are overwritten.
+	 * @param archive
+	 * @param destDir is created, if it does not exist.
+	 * @return number of entries and bytes written
+	 * @throws IOException if the archive can not be read, e.g. because it is not a zip file
+	 */
+	Result extract(Path archive, Path destDir) throws IOException {
+		return extract(archive, destDir, true);
+	}
+
+	/**
+	 * @param chargeRun whether the bytes count against the run limit of the SizeGuard, not for
+	 * an archive, whose files are counted again when they are copied (the Moodle file)
+	 */
+	Result extract(Path archive, Path destDir, boolean chargeRun) throws IOException {
+		ZipFile zf;
+		try {
+			zf = new ZipFile(archive.toFile(), StandardCharsets.UTF_8);
+		} catch (ZipException e) {
+			zf = new ZipFile(archive.toFile(), FALLBACK_CHARSET);
+		}
+		try {
+			return extract(zf, destDir, chargeRun);
+		} catch (IllegalArgumentException e) {
+			// entry name is no valid UTF-8
+			zf.close();
+			zf = new ZipFile(archive.toFile(), FALLBACK_CHARSET);
+			return extract(zf, destDir, chargeRun);
+		} finally {
+			zf.close();
+		}
+	}
+
+	private Result extract(ZipFile zf, Path destDir, boolean chargeRun) throws IOException {
+		Result result = new Result();
+		Path base = destDir.toAbsolutePath().normalize();
+		Files.createDirectories(base);
+		Enumeration<? extends ZipEntry> entries = zf.entries();
+		while (entries.hasMoreElements()) {
+			ZipEntry e = entries.nextElement();
+			Path target = resolve(base, e.getName());
+			if (target == null) {
+				System.out.println("Entry \"" + e.getName() + "\" skipped, it is outside of the destination directory!");
+				continue;
+			}
+			if (e.isDirectory()) {
+				Files.createDirectories(target);
+				continue;
+			}
+			String tooBig = guard == null ? null : guard.check(e.getSize(), e.getCompressedSize());
+			if (tooBig != null) {
+				System.out.println("Entry \"" + e.getName() + "\" skipped: " + tooBig);
+				result.tooBig.add(e.getName());
+				continue;
+			}
+			Path parent = target.getParent();
+			if (parent != null) {
+				Files.createDirectories(parent);
+			}
+			try (InputStream in = guard == null ? zf.getInputStream(e) : SizeGuard.guard(zf.getInputStream(e),
+					guard.file(), guard.ratio(e.getCompressedSize()), chargeRun ? guard.run : null);
+				OutputStream out = Files.newOutputStream(target)) {
+				result.bytes += copy(in, out);
+			} catch (SizeGuard.LimitException ex) {
+				// the header was wrong, the entry is aborted
+				System.out.println("Entry \"" + e.getName() + "\" aborted: " + ex.getMessage());
+				Files.deleteIfExists(target);
+				result.tooBig.add(e.getName());
+				continue;
+			} catch (IOException ex) {
+				// nothing half written is left for the caller (e.g. the 7-zip fallback)
+				Files.deleteIfExists(target);
+				throw ex;
+			}
+			if (e.getTime() != -1) {
+				Files.setLastModifiedTime(target, FileTime.fromMillis(e.getTime()));
+			}
+			result.entries++;
+		}
+		return result;
+	}
+
+	/**
+	 * Resolves an entry name against the destination directory. Backslashes written
+	 * by some Windows tools are treated as separators.
+	 * @return null, if the entry would end up outside of base ("zip slip").
+	 */
+	static Path resolve(Path base, String entryName) {
+		String n = entryName.replace('\\', '/');
+		while (n.startsWith("/")) {
+			n = n.substring(1);
+		}
+		Path target = base.resolve(n).normalize();
+		if (!target.startsWith(base)) {
+			return null;
+		}
+		return target;
+	}
+
+	/**
+	 * Wraps a stream, so that closing the wrapper (e.g. a ZipInputStream reading a
+	 * nested archive) does not close the enclosing stream.
+	 */
+	static InputStream nonClosing(InputStream in) {
+		return new FilterInputStream(in) {
+			@Override
+			public void close() {
+			}
+		};
+	}
+
+	/**
+	 * Copies a stream with a pooled buffer.
+	 * @return number of bytes copied
+	 */
+	long copy(InputStream in, OutputStream out) throws IOException {
+		byte[] buffer = pool.acquire();
+		try {
+			long total = 0;
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				out.write(buffer, 0, n);
+				total += n;
+			}
+			return total;
+		} finally {
+			pool.release(buffer);
+		}
+	}
+}